@@ -18,52 +18,196 @@ package com.example.android.pets;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AlertDialog;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewConfiguration;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.view.ViewTreeObserver;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.pets.data.CatalogSnapshot;
+import com.example.android.pets.data.CatalogSnapshotObserver;
+import com.example.android.pets.data.CoalescingCursorLoader;
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetFilter;
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.data.PetsContract.PetEntry;
 
 import java.lang.reflect.Field;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static android.R.attr.id;
 import static android.R.attr.value;
 import static com.example.android.pets.R.id.fab;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_AFTER_ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_AFTER_KEY;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_UNTIL_ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_UNTIL_KEY;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static com.example.android.pets.data.PetsContract.SORT_NEWEST;
+import static com.example.android.pets.data.PetsContract.SORT_WEIGHT;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
 import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_FEMALE;
 import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_MALE;
+import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_UNKNOWN;
+import static com.example.android.pets.data.PetsContract.PetEntry.NO_PHOTO;
 import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
 import static com.example.android.pets.data.PetsContract.PetEntry._ID;
-import com.example.android.pets.data.PetCursorAdapter;
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetAdapter;
 
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
 
-    private static final int PET_LOADER = 0;
+    /** Loader ID of the search results */
+    private static final int SEARCH_LOADER = 0;
+
+    /** Loader ID of the first page of pets, every following page uses the next ID */
+    private static final int PET_LOADER = 1;
 
-    PetCursorAdapter mPetCursorAdapter;
+    /** Maximum number of search results shown while the user types */
+    private static final int SEARCH_RESULTS_LIMIT = 100;
+
+    /** Number of pets loaded by each page of the catalog */
+    static final int PAGE_SIZE = 50;
+
+    /** Start loading the next page when the user scrolls this close to the end of the list */
+    private static final int PAGE_PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /**
+     * Pages further than this from the pages on screen are dropped with their loaders, and
+     * loaded again when the user scrolls back to them. The list keeps a placeholder for each of
+     * their pets, so it doesn't jump.
+     */
+    private static final int PAGES_KEPT_AROUND_SCREEN = 1;
+
+    /**
+     * Changes of the pets that come in this close together are loaded with one query, but no
+     * change waits longer than the maximum staleness, so the catalog queries a few times a
+     * second at most however fast the pets change.
+     */
+    private static final long UPDATE_WINDOW_MS = 250;
+    private static final long UPDATE_MAX_STALENESS_MS = 1000;
+
+    /** Sort orders and genders of the filter dialog, in the order of its spinners */
+    private static final String[] SORT_OPTIONS = {null, SORT_NEWEST, SORT_NAME, SORT_WEIGHT};
+    private static final Integer[] GENDER_OPTIONS = {null, GENDER_UNKNOWN, GENDER_MALE, GENDER_FEMALE};
+
+    /** Marks the last page, which has no upper bound yet and can still grow */
+    static final long NO_LAST_ID = -1;
+
+    /** Keys used to save the page bounds across configuration changes */
+    private static final String STATE_PAGE_AFTER_IDS = "page_after_ids";
+    private static final String STATE_PAGE_LAST_IDS = "page_last_ids";
+    private static final String STATE_PAGE_AFTER_KEYS = "page_after_keys";
+    private static final String STATE_PAGE_LAST_KEYS = "page_last_keys";
+    private static final String STATE_PAGE_SIZES = "page_sizes";
+
+    /** Keys used to save the pages kept loaded across configuration changes */
+    private static final String STATE_WINDOW_FIRST_PAGE = "window_first_page";
+    private static final String STATE_WINDOW_LAST_PAGE = "window_last_page";
+
+    /** Key used to save the filter across configuration changes */
+    private static final String STATE_FILTER = "filter";
+
+    /** Key used to save the search text across configuration changes */
+    private static final String STATE_SEARCH_TEXT = "search_text";
+
+    /** For every page, the _ID the page starts after */
+    private final ArrayList<Long> mPageAfterIds = new ArrayList<>();
+
+    /** For every page, the _ID of its last row, or {@link #NO_LAST_ID} for the last page */
+    private final ArrayList<Long> mPageLastIds = new ArrayList<>();
+
+    /**
+     * For every page, the sort key of the pet the page starts after and of its last row, when
+     * the pets are sorted by a key. Null otherwise.
+     */
+    private final ArrayList<String> mPageAfterKeys = new ArrayList<>();
+    private final ArrayList<String> mPageLastKeys = new ArrayList<>();
+
+    /** For every page, the number of pets it had when it was last loaded */
+    private final ArrayList<Integer> mPageSizes = new ArrayList<>();
+
+    /** Sort key of the last pet of the pages kept loaded, keyed by page number */
+    private final SparseArray<String> mPageEndKeys = new SparseArray<>();
+
+    /**
+     * First and last page kept loaded, the pages on screen and {@link #PAGES_KEPT_AROUND_SCREEN}
+     * on each side of them. The last page may not exist yet.
+     */
+    private int mWindowFirstPage;
+    private int mWindowLastPage = PAGES_KEPT_AROUND_SCREEN;
+
+    /** Filters and sort order of the catalog */
+    private PetFilter mFilter = PetFilter.NONE;
+
+    /** Pets of the pages kept loaded, keyed by page number */
+    private final SparseArray<List<Pet>> mPages = new SparseArray<>();
+
+    /**
+     * Keeps a snapshot of the whole catalog in memory from the first time the user opens the
+     * filters, so the first page of a filter can be shown before the database is queried.
+     * Null until then.
+     */
+    private CatalogSnapshotObserver mSnapshotObserver;
+
+    /** Rows of the snapshot that match the filter, reused by every filter */
+    private int[] mSnapshotRows = new int[0];
+
+    /**
+     * Whether the first page of a new filter is still loading. The pets of the old filter stay
+     * on screen until then, and no page is added after them.
+     */
+    private boolean mFirstPageLoading;
+
+    /** Text the user is searching for, or null when the whole catalog is shown */
+    private String mSearchText;
+
+    PetAdapter mPetAdapter;
+
+    /** Shown instead of the list when there are no pets */
+    private View mEmptyView;
+
+    /** Whether the overflow menu button was forced on for this process */
+    private static boolean sOverflowMenuButtonShown;
+
+    /** Whether this catalog is waiting for its first list frame to log it */
+    private boolean mFirstListFrameReported;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -80,23 +224,16 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Find the ListView which will be populated with the pet data
-        ListView petListView = (ListView) findViewById(R.id.list_view_pet);
+        // Find the RecyclerView which will be populated with the pet data
+        RecyclerView petListView = (RecyclerView) findViewById(R.id.list_view_pet);
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        petListView.setLayoutManager(layoutManager);
 
-        // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
-        View emptyView = findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
-
-        // Setup an Adapter to create a list item for each row of pet data in the Cursor.
-        // There is no pet data yet (until the loader finishes) so pass in null for the Cursor.
-        mPetCursorAdapter = new PetCursorAdapter(this, null);
-        petListView.setAdapter(mPetCursorAdapter);
-
-        getLoaderManager().initLoader(PET_LOADER, null, this);
-
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Setup an Adapter to create a list item for each pet, opening the editor when a pet
+        // is clicked. There is no pet data yet (until the loader finishes).
+        mPetAdapter = new PetAdapter(this, new PetAdapter.OnPetClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onPetClick(long id) {
                 Intent editPetIntent = new  Intent(CatalogActivity.this, EditorActivity.class);
                 Uri currentUri = ContentUris.withAppendedId(CONTENT_URI, id);
 
@@ -105,9 +242,106 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(editPetIntent);
             }
         });
+        petListView.setAdapter(mPetAdapter);
+
+        // Find the empty view and only show it when the list has 0 items.
+        mEmptyView = findViewById(R.id.empty_view);
+        mPetAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+                reportFirstListFrame();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+                reportFirstListFrame();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
+        updateEmptyView();
+
+        // Restore the filter and the pages the user had already scrolled through, or start
+        // with the first page
+        if (savedInstanceState != null && savedInstanceState.containsKey(STATE_PAGE_AFTER_IDS)) {
+            mFilter = PetFilter.fromBundle(savedInstanceState.getBundle(STATE_FILTER));
+            long[] afterIds = savedInstanceState.getLongArray(STATE_PAGE_AFTER_IDS);
+            long[] lastIds = savedInstanceState.getLongArray(STATE_PAGE_LAST_IDS);
+            String[] afterKeys = savedInstanceState.getStringArray(STATE_PAGE_AFTER_KEYS);
+            String[] lastKeys = savedInstanceState.getStringArray(STATE_PAGE_LAST_KEYS);
+            int[] sizes = savedInstanceState.getIntArray(STATE_PAGE_SIZES);
+            for (int page = 0; page < afterIds.length; page++) {
+                mPageAfterIds.add(afterIds[page]);
+                mPageLastIds.add(lastIds[page]);
+                mPageAfterKeys.add(afterKeys[page]);
+                mPageLastKeys.add(lastKeys[page]);
+                mPageSizes.add(sizes[page]);
+            }
+            mWindowFirstPage = savedInstanceState.getInt(STATE_WINDOW_FIRST_PAGE);
+            mWindowLastPage = savedInstanceState.getInt(STATE_WINDOW_LAST_PAGE);
+        } else {
+            addFirstPage();
+        }
+        for (int page = 0; page < mPageAfterIds.size(); page++) {
+            if (isInWindow(page)) {
+                getLoaderManager().initLoader(PET_LOADER + page, null, this);
+            }
+        }
+
+        // Restore the search the user was running
+        if (savedInstanceState != null) {
+            mSearchText = savedInstanceState.getString(STATE_SEARCH_TEXT);
+        }
+        if (mSearchText != null) {
+            getLoaderManager().initLoader(SEARCH_LOADER, null, this);
+        }
+
+        // Keep the pages around the screen loaded, and load the next page before the user
+        // reaches the end of the list. This is also called after every layout, so a first page
+        // that doesn't fill the screen is followed up too.
+        petListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if (firstVisibleItem != RecyclerView.NO_POSITION && mSearchText == null) {
+                    updateWindow(getPageOf(firstVisibleItem), getPageOf(lastVisibleItem));
+                }
+                if (lastVisibleItem >= layoutManager.getItemCount() - PAGE_PREFETCH_DISTANCE) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        showOverflowMenuButton(this);
+        StartupTiming.mark("Catalog created");
+    }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mSnapshotObserver != null) {
+            mSnapshotObserver.stop();
+        }
+    }
+
+    /**
+     * Make the app bar show the overflow menu button on devices with a menu key. AppCompat always
+     * shows it from Android 4.4 on, so only older devices pay for the reflection, and only once
+     * per process because the configuration is shared.
+     */
+    private static void showOverflowMenuButton(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT || sOverflowMenuButtonShown) {
+            return;
+        }
+        sOverflowMenuButtonShown = true;
         try {
-            ViewConfiguration config = ViewConfiguration.get(this);
+            ViewConfiguration config = ViewConfiguration.get(context);
             Field menuKeyField = ViewConfiguration.class.getDeclaredField("sHasPermanentMenuKey");
             if (menuKeyField != null) {
                 menuKeyField.setAccessible(true);
@@ -118,6 +352,406 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         }
     }
 
+    /**
+     * Log the start of the app as finished when the list is drawn for the first time after
+     * showing the first pets, or an empty first page.
+     */
+    private void reportFirstListFrame() {
+        if (StartupTiming.isFinished() || mFirstListFrameReported) {
+            return;
+        }
+        mFirstListFrameReported = true;
+        final View petListView = findViewById(R.id.list_view_pet);
+        petListView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                petListView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTiming.finish("First list frame");
+                return true;
+            }
+        });
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        long[] afterIds = new long[mPageAfterIds.size()];
+        long[] lastIds = new long[mPageLastIds.size()];
+        int[] sizes = new int[mPageSizes.size()];
+        for (int page = 0; page < afterIds.length; page++) {
+            afterIds[page] = mPageAfterIds.get(page);
+            lastIds[page] = mPageLastIds.get(page);
+            sizes[page] = mPageSizes.get(page);
+        }
+        outState.putLongArray(STATE_PAGE_AFTER_IDS, afterIds);
+        outState.putLongArray(STATE_PAGE_LAST_IDS, lastIds);
+        outState.putIntArray(STATE_PAGE_SIZES, sizes);
+        outState.putInt(STATE_WINDOW_FIRST_PAGE, mWindowFirstPage);
+        outState.putInt(STATE_WINDOW_LAST_PAGE, mWindowLastPage);
+        outState.putStringArray(STATE_PAGE_AFTER_KEYS,
+                mPageAfterKeys.toArray(new String[mPageAfterKeys.size()]));
+        outState.putStringArray(STATE_PAGE_LAST_KEYS,
+                mPageLastKeys.toArray(new String[mPageLastKeys.size()]));
+        outState.putBundle(STATE_FILTER, mFilter.toBundle());
+        outState.putString(STATE_SEARCH_TEXT, mSearchText);
+    }
+
+    /**
+     * Show the pets matching the given text, or the whole catalog if the text is empty.
+     */
+    private void search(String text) {
+        if (TextUtils.isEmpty(text)) {
+            mSearchText = null;
+            getLoaderManager().destroyLoader(SEARCH_LOADER);
+            swapPages();
+        } else {
+            mSearchText = text;
+            getLoaderManager().restartLoader(SEARCH_LOADER, null, this);
+        }
+    }
+
+    /**
+     * Start loading the page after the last one, if the last page is loaded and full.
+     */
+    private void loadNextPage() {
+        // Search results are not paged, and the pages of a new filter start from its first page
+        if (mSearchText != null || mFirstPageLoading) {
+            return;
+        }
+
+        int lastPage = mPageAfterIds.size() - 1;
+        List<Pet> pets = mPages.get(lastPage);
+        if (pets == null || pets.size() < PAGE_SIZE) {
+            return;
+        }
+        long lastId = pets.get(pets.size() - 1).id;
+        String lastKey = mPageEndKeys.get(lastPage);
+        if (lastKey == null && mFilter.getSortKeyColumn() != null) {
+            // The next page of a sort by key can't start without the key
+            return;
+        }
+
+        // Close the last page at its current last row, so that when rows are deleted from it
+        // it doesn't grow into the next page. Then start the next page right after it.
+        mPageLastIds.set(lastPage, lastId);
+        mPageLastKeys.set(lastPage, lastKey);
+        getLoaderManager().restartLoader(PET_LOADER + lastPage, null, this);
+
+        mPageAfterIds.add(lastId);
+        mPageLastIds.add(NO_LAST_ID);
+        mPageAfterKeys.add(lastKey);
+        mPageLastKeys.add(null);
+        mPageSizes.add(0);
+        getLoaderManager().initLoader(PET_LOADER + lastPage + 1, null, this);
+    }
+
+    /**
+     * Keep the given pages on screen loaded, with the pages around them, and drop the others
+     * with their loaders, so only a few pages are held in memory and queried again when the
+     * pets change.
+     */
+    private void updateWindow(int firstVisiblePage, int lastVisiblePage) {
+        int firstPage = Math.max(0, firstVisiblePage - PAGES_KEPT_AROUND_SCREEN);
+        int lastPage = lastVisiblePage + PAGES_KEPT_AROUND_SCREEN;
+        if (firstPage == mWindowFirstPage && lastPage == mWindowLastPage) {
+            return;
+        }
+        mWindowFirstPage = firstPage;
+        mWindowLastPage = lastPage;
+
+        boolean dropped = false;
+        for (int page = 0; page < mPageAfterIds.size(); page++) {
+            int loaderId = PET_LOADER + page;
+            boolean loading = getLoaderManager().getLoader(loaderId) != null;
+            if (isInWindow(page) && !loading) {
+                getLoaderManager().initLoader(loaderId, null, this);
+            } else if (!isInWindow(page) && loading) {
+                getLoaderManager().destroyLoader(loaderId);
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            swapPages();
+        }
+    }
+
+    private boolean isInWindow(int page) {
+        return page >= mWindowFirstPage && page <= mWindowLastPage;
+    }
+
+    /**
+     * Returns the page of the pet at the given position of the list, or the last page if the
+     * position is past the end of the pages.
+     */
+    private int getPageOf(int position) {
+        int pageEnd = 0;
+        for (int page = 0; page < mPageSizes.size(); page++) {
+            pageEnd += mPageSizes.get(page);
+            if (position < pageEnd) {
+                return page;
+            }
+        }
+        return mPageSizes.size() - 1;
+    }
+
+    /**
+     * Add the bounds of the first page, which starts at the beginning of the sort order.
+     */
+    private void addFirstPage() {
+        mPageAfterIds.add(0L);
+        mPageLastIds.add(NO_LAST_ID);
+        mPageAfterKeys.add(null);
+        mPageLastKeys.add(null);
+        mPageSizes.add(0);
+    }
+
+    /**
+     * Show the catalog with the given filter, starting again from its first page. The pets of
+     * the old filter stay on screen until the first page is loaded, or shown from the snapshot,
+     * but none of its pages are kept, so no page of the new filter can start after them.
+     */
+    private void applyFilter(PetFilter filter) {
+        mFilter = filter;
+        mFirstPageLoading = true;
+        for (int page = mPageAfterIds.size() - 1; page > 0; page--) {
+            getLoaderManager().destroyLoader(PET_LOADER + page);
+        }
+        mPages.clear();
+        mPageEndKeys.clear();
+        mPageAfterIds.clear();
+        mPageLastIds.clear();
+        mPageAfterKeys.clear();
+        mPageLastKeys.clear();
+        mPageSizes.clear();
+        mWindowFirstPage = 0;
+        mWindowLastPage = PAGES_KEPT_AROUND_SCREEN;
+        addFirstPage();
+        getLoaderManager().restartLoader(PET_LOADER, null, this);
+        showFirstPageFromSnapshot();
+    }
+
+    /**
+     * Load the snapshot of the catalog, if it isn't loaded yet, and keep it up to date. A filter
+     * applied before it is loaded is shown from it as soon as it is.
+     */
+    private void startSnapshot() {
+        if (mSnapshotObserver != null) {
+            return;
+        }
+        mSnapshotObserver = new CatalogSnapshotObserver(this, new CatalogSnapshotObserver.Listener() {
+            @Override
+            public void onSnapshotChanged(CatalogSnapshot snapshot) {
+                if (mFirstPageLoading) {
+                    showFirstPageFromSnapshot();
+                }
+            }
+        });
+        mSnapshotObserver.start();
+    }
+
+    /**
+     * Show the first page of the filter from the snapshot, while it is loaded from the database,
+     * which replaces it. Only the snapshot filters and sorts in memory, without going back to
+     * SQLite, but it can't match a name prefix, and it has no photos.
+     */
+    private void showFirstPageFromSnapshot() {
+        CatalogSnapshot snapshot = mSnapshotObserver == null ? null : mSnapshotObserver.getSnapshot();
+        if (snapshot == null || mSearchText != null || mFilter.namePrefix != null) {
+            return;
+        }
+        if (mSnapshotRows.length < snapshot.size()) {
+            mSnapshotRows = new int[snapshot.size()];
+        }
+        int count = snapshot.filter(
+                mFilter.gender == null ? CatalogSnapshot.ANY_GENDER : mFilter.gender,
+                mFilter.minWeight == null ? Integer.MIN_VALUE : mFilter.minWeight,
+                mFilter.maxWeight == null ? Integer.MAX_VALUE : mFilter.maxWeight, mSnapshotRows);
+        // The rows are in _ID order, which is the order without a sort
+        if (SORT_NAME.equals(mFilter.sort)) {
+            snapshot.sort(mSnapshotRows, count, CatalogSnapshot.ORDER_NAME);
+        } else if (SORT_WEIGHT.equals(mFilter.sort)) {
+            snapshot.sort(mSnapshotRows, count, CatalogSnapshot.ORDER_WEIGHT);
+        } else if (SORT_NEWEST.equals(mFilter.sort)) {
+            snapshot.sort(mSnapshotRows, count, CatalogSnapshot.ORDER_NEWEST);
+        }
+
+        List<Pet> pets = new ArrayList<>(Math.min(count, PAGE_SIZE));
+        for (int i = 0; i < count && i < PAGE_SIZE; i++) {
+            int row = mSnapshotRows[i];
+            pets.add(new Pet(snapshot.getId(row), snapshot.getName(row), snapshot.getBreed(row),
+                    NO_PHOTO));
+        }
+        mPetAdapter.setPets(pets);
+    }
+
+    /**
+     * Show a dialog to pick the filters and sort order of the catalog.
+     */
+    private void showFilterDialog() {
+        startSnapshot();
+
+        View view = getLayoutInflater().inflate(R.layout.dialog_filter, null);
+        final Spinner sortSpinner = (Spinner) view.findViewById(R.id.spinner_sort);
+        final Spinner genderSpinner = (Spinner) view.findViewById(R.id.spinner_filter_gender);
+        final EditText namePrefixEditText = (EditText) view.findViewById(R.id.edit_filter_name_prefix);
+        final EditText minWeightEditText = (EditText) view.findViewById(R.id.edit_filter_min_weight);
+        final EditText maxWeightEditText = (EditText) view.findViewById(R.id.edit_filter_max_weight);
+
+        ArrayAdapter<CharSequence> sortAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_sort_options, android.R.layout.simple_spinner_item);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        sortSpinner.setAdapter(sortAdapter);
+        ArrayAdapter<CharSequence> genderAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_filter_gender_options, android.R.layout.simple_spinner_item);
+        genderAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        genderSpinner.setAdapter(genderAdapter);
+
+        // Show the current filter
+        sortSpinner.setSelection(indexOf(SORT_OPTIONS, mFilter.sort));
+        genderSpinner.setSelection(indexOf(GENDER_OPTIONS, mFilter.gender));
+        namePrefixEditText.setText(mFilter.namePrefix);
+        if (mFilter.minWeight != null) {
+            minWeightEditText.setText(String.valueOf(mFilter.minWeight));
+        }
+        if (mFilter.maxWeight != null) {
+            maxWeightEditText.setText(String.valueOf(mFilter.maxWeight));
+        }
+
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int i) {
+                applyFilter(new PetFilter(GENDER_OPTIONS[genderSpinner.getSelectedItemPosition()],
+                        parseWeight(minWeightEditText), parseWeight(maxWeightEditText),
+                        namePrefixEditText.getText().toString().trim(),
+                        SORT_OPTIONS[sortSpinner.getSelectedItemPosition()]));
+            }
+        });
+        builder.setNeutralButton(R.string.clear, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int i) {
+                applyFilter(PetFilter.NONE);
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Returns the weight typed in the field, or null if it is empty or not a weight.
+     */
+    private static Integer parseWeight(EditText editText) {
+        String weight = editText.getText().toString().trim();
+        if (TextUtils.isEmpty(weight)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(weight);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the position of the value in the options of a spinner.
+     */
+    private static int indexOf(Object[] options, Object value) {
+        for (int i = 0; i < options.length; i++) {
+            if (options[i] == null ? value == null : options[i].equals(value)) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Show all the pages in the list, with placeholders for the pages that are not loaded.
+     */
+    private void swapPages() {
+        if (mSearchText != null || mFirstPageLoading) {
+            return;
+        }
+        List<List<Pet>> pages = new ArrayList<>(mPageSizes.size());
+        for (int page = 0; page < mPageSizes.size(); page++) {
+            pages.add(mPages.get(page));
+        }
+        mPetAdapter.setPets(new PagedPets(pages, mPageSizes));
+    }
+
+    /**
+     * The pets of all the pages as one list, without copying them. Every page that is not
+     * loaded holds a null placeholder for each pet it had when it was last loaded. A placeholder
+     * is known by its page and its slot in the page, so it keeps its ID while the pages around
+     * it are loaded and dropped.
+     */
+    private static class PagedPets extends AbstractList<Pet> implements PetAdapter.PlaceholderList {
+
+        /** Pets of every page, or null when the page is not loaded */
+        private final List<List<Pet>> mPages;
+
+        /** Position of the first pet of every page */
+        private final int[] mPageStarts;
+
+        private final int mSize;
+
+        PagedPets(List<List<Pet>> pages, List<Integer> pageSizes) {
+            mPages = pages;
+            mPageStarts = new int[pages.size()];
+            int size = 0;
+            for (int page = 0; page < mPageStarts.length; page++) {
+                mPageStarts[page] = size;
+                size += pageSizes.get(page);
+            }
+            mSize = size;
+        }
+
+        @Override
+        public Pet get(int position) {
+            int page = pageOf(position);
+            List<Pet> pets = mPages.get(page);
+            return pets == null ? null : pets.get(position - mPageStarts[page]);
+        }
+
+        @Override
+        public long getPlaceholderId(int position) {
+            // The page in the high half and the slot in the low half, below the IDs of the pets,
+            // which are never negative
+            int page = pageOf(position);
+            return Long.MIN_VALUE + ((long) page << 32) + (position - mPageStarts[page]);
+        }
+
+        /**
+         * Returns the page of the pet at the given position.
+         */
+        private int pageOf(int position) {
+            if (position < 0 || position >= mSize) {
+                throw new IndexOutOfBoundsException("Position " + position + " of " + mSize);
+            }
+            int page = Arrays.binarySearch(mPageStarts, position);
+            if (page < 0) {
+                page = -page - 2;
+            }
+            // Skip the empty pages that start at the same position
+            while (page + 1 < mPageStarts.length && mPageStarts[page + 1] <= position) {
+                page++;
+            }
+            return page;
+        }
+
+        @Override
+        public int size() {
+            return mSize;
+        }
+    }
+
+    /**
+     * Show the empty view only when the list has 0 items.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(mPetAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
     private void insertPet() {
 
         ContentValues values = new ContentValues();
@@ -126,7 +760,7 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         values.put(COLUMN_PET_GENDER, GENDER_MALE);
         values.put(COLUMN_PET_WEIGHT, 7);
 
-        Uri newUri = getContentResolver().insert(CONTENT_URI, values);
+        PetWriteQueue.getInstance(this).insert(CONTENT_URI, values, null);
 
         //Log.v("CatalogActivity","New row ID: " + newUri);
     }
@@ -136,6 +770,41 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search the catalog as the user types
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (mSearchText != null) {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchText, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                // Go back to the whole catalog when the search is closed
+                search(null);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -144,6 +813,10 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
             // Respond to a click on the "Insert dummy data" menu option
+            case R.id.action_filter:
+                showFilterDialog();
+                return true;
+            // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertPet();
                 //displayDatabaseInfo();
@@ -157,13 +830,30 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     }
 
     private void deleteAllPets() {
-        //Delete pets in table and return number of rows delete and store in int deletedRows
-        int deletedRows = getContentResolver().delete(CONTENT_URI, null, null);
+        //Delete pets in table in the background and show a toast with the number of deleted rows
+        PetWriteQueue.getInstance(this).delete(CONTENT_URI, null, null,
+                new DeleteAllResultToast(this));
+    }
 
-        if(deletedRows == 0) {
-            Toast.makeText(this, R.string.editor_delete_all_pets_failed, Toast.LENGTH_SHORT).show();
-        } else {
-            Toast.makeText(this, R.string.editor_delete_all_pets_successful, Toast.LENGTH_SHORT).show();
+    /**
+     * Shows a toast message depending on whether or not all pets were deleted. It only keeps
+     * the application context, so it can outlive the catalog.
+     */
+    private static class DeleteAllResultToast extends PetWriteQueue.Callback {
+
+        private final Context mContext;
+
+        DeleteAllResultToast(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public void onDeleteComplete(int rowCount) {
+            if(rowCount == 0) {
+                Toast.makeText(mContext, R.string.editor_delete_all_pets_failed, Toast.LENGTH_SHORT).show();
+            } else {
+                Toast.makeText(mContext, R.string.editor_delete_all_pets_successful, Toast.LENGTH_SHORT).show();
+            }
         }
     }
 
@@ -191,19 +881,96 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+        String[] projection = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_WEIGHT,
+                COLUMN_PET_PHOTO_VERSION};
+
+        if (i == SEARCH_LOADER) {
+            Uri searchUri = PetEntry.buildSearchUri(mSearchText).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(SEARCH_RESULTS_LIMIT))
+                    .build();
+            return new CoalescingCursorLoader(this, searchUri, projection, null, null, null,
+                    UPDATE_WINDOW_MS, UPDATE_MAX_STALENESS_MS);
+        }
 
-        String[] projection = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED};
+        int page = i - PET_LOADER;
+        Uri pageUri = buildPageUri(mFilter, page, mPageAfterIds.get(page), mPageAfterKeys.get(page),
+                mPageLastIds.get(page), mPageLastKeys.get(page));
+        return new CoalescingCursorLoader(this, pageUri, projection, null, null, null,
+                UPDATE_WINDOW_MS, UPDATE_MAX_STALENESS_MS);
+    }
+
+    /**
+     * Returns the URI of a page of the pets of the filter, which starts after the last pet of the
+     * page before.
+     *
+     * The last page holds at most {@link #PAGE_SIZE} pets. The pages before it end at the last pet
+     * they held when the next page was started, and are not limited: pets added or renamed into
+     * them make them grow, where a limit would push their last pets out into no page at all.
+     *
+     * @param lastId The _ID of the last pet of the page, or {@link #NO_LAST_ID} for the last page
+     */
+    static Uri buildPageUri(PetFilter filter, int page, long afterId, String afterKey,
+                            long lastId, String lastKey) {
+        Uri.Builder pageUri = filter.appendTo(CONTENT_URI.buildUpon());
+        if (page > 0) {
+            pageUri.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            appendSortKey(pageUri, QUERY_PARAMETER_AFTER_KEY, afterKey);
+        }
+        if (lastId != NO_LAST_ID) {
+            pageUri.appendQueryParameter(QUERY_PARAMETER_UNTIL_ID, String.valueOf(lastId));
+            appendSortKey(pageUri, QUERY_PARAMETER_UNTIL_KEY, lastKey);
+        } else {
+            pageUri.appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE));
+        }
+        return pageUri.build();
+    }
 
-        return new CursorLoader(this, CONTENT_URI, projection, null, null, null);
+    private static void appendSortKey(Uri.Builder uri, String parameter, String key) {
+        if (key != null) {
+            uri.appendQueryParameter(parameter, key);
+        }
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        mPetCursorAdapter.swapCursor(cursor);
+        // Only a snapshot of the pets is kept, the loader owns and closes the cursor
+        if (loader.getId() == SEARCH_LOADER) {
+            mPetAdapter.setPets(Pet.fromCursor(cursor));
+            return;
+        }
+        int page = loader.getId() - PET_LOADER;
+        if (page == 0) {
+            mFirstPageLoading = false;
+        }
+        List<Pet> pets = Pet.fromCursor(cursor);
+        mPages.put(page, pets);
+        mPageSizes.set(page, pets.size());
+        String sortKeyColumn = mFilter.getSortKeyColumn();
+        if (sortKeyColumn != null && cursor.moveToLast()) {
+            mPageEndKeys.put(page, cursor.getString(cursor.getColumnIndex(sortKeyColumn)));
+        } else {
+            mPageEndKeys.remove(page);
+        }
+        swapPages();
+        if (loader.getId() == PET_LOADER) {
+            StartupTiming.mark("First page loaded");
+            if (cursor.getCount() == 0) {
+                // An empty page doesn't change the list, the empty view is the first frame
+                reportFirstListFrame();
+            }
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        mPetCursorAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            if (mSearchText != null) {
+                mPetAdapter.setPets(Collections.<Pet>emptyList());
+            }
+            return;
+        }
+        // The page was dropped, whoever dropped it shows the placeholders of its pets
+        mPages.remove(loader.getId() - PET_LOADER);
+        mPageEndKeys.remove(loader.getId() - PET_LOADER);
     }
 }
@@ -18,6 +18,7 @@ package com.example.android.pets;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -42,6 +43,7 @@ import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetDbHelper;
+import com.example.android.pets.data.PetWriteQueue;
 import com.example.android.pets.data.PetsContract;
 
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
@@ -231,38 +233,55 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
         values.put(COLUMN_PET_WEIGHT, weightInt);
 
+        // The write runs in the background and its result is shown as a toast when it is done,
+        // even if the editor has been closed by then.
+        PetWriteQueue writeQueue = PetWriteQueue.getInstance(this);
+
         // Determine if this is a new or existing pet by checking if mCurrentPetUri is null or not
         if (mCurrentUri == null) {
-            Uri newUri = getContentResolver().insert(CONTENT_URI, values);
-            //Log.v("EditorActivity", "New pet saved with URI: " + uriId);
-
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            writeQueue.insert(CONTENT_URI, values, new WriteResultToast(this));
         }
         else {
             // Otherwise this is an EXISTING pet, so update the pet with content URI: mCurrentPetUri
             // and pass in the new ContentValues. Pass in null for the selection and selection args
             // because mCurrentPetUri will already identify the correct row in the database that
             // we want to modify.
-            int updatedRows = getContentResolver().update(mCurrentUri, values, null, null);
-            //Log.v("EditorActivity", "Update pet saved number of rows: " + updatedRows);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (updatedRows == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this,R.string.editor_update_pet_failed, Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this,R.string.editor_update_pet_successful, Toast.LENGTH_SHORT).show();
-            }
+            writeQueue.update(mCurrentUri, values, null, null, new WriteResultToast(this));
+        }
+    }
+
+    /**
+     * Shows a toast message depending on whether or not a write from the editor was successful.
+     * It only keeps the application context, so it can outlive the editor.
+     */
+    private static class WriteResultToast extends PetWriteQueue.Callback {
+
+        private final Context mContext;
+
+        WriteResultToast(Context context) {
+            mContext = context.getApplicationContext();
+        }
+
+        @Override
+        public void onInsertComplete(Uri uri) {
+            // If the new content URI is null, then there was an error with insertion.
+            show(uri == null ? R.string.editor_insert_pet_failed : R.string.editor_insert_pet_successful);
+        }
+
+        @Override
+        public void onUpdateComplete(int rowCount) {
+            // If no rows were affected, then there was an error with the update.
+            show(rowCount == 0 ? R.string.editor_update_pet_failed : R.string.editor_update_pet_successful);
+        }
+
+        @Override
+        public void onDeleteComplete(int rowCount) {
+            // If no rows were deleted, then there was an error with the deletion.
+            show(rowCount == 0 ? R.string.editor_delete_pet_failed : R.string.editor_delete_pet_successful);
+        }
+
+        private void show(int messageId) {
+            Toast.makeText(mContext, messageId, Toast.LENGTH_SHORT).show();
         }
     }
 
@@ -380,17 +399,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     private void deletePet(){
-        int deletedRows = getContentResolver().delete(mCurrentUri, null, null);
-        //Log.v("EditorActivity", "Delete pet number of rows: " + deletedRows);
-
-        // Show a toast message depending on whether or not the deletion was successful.
-        if (deletedRows == 0) {
-            // If no rows were deleted, then there was an error with the deletion.
-            Toast.makeText(this, R.string.editor_delete_pet_failed, Toast.LENGTH_SHORT).show();
-        } else {
-            // Otherwise, the deletion was successful and we can display a toast.
-            Toast.makeText(this, R.string.editor_delete_pet_successful, Toast.LENGTH_SHORT).show();
-        }
+        // Delete in the background, the toast shows whether or not the deletion was successful
+        PetWriteQueue.getInstance(this).delete(mCurrentUri, null, null, new WriteResultToast(this));
 
 
         //return to CatalogActivity
@@ -0,0 +1,55 @@
+package com.example.android.pets;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * {@link StartupTiming} logs how long after the start of the process each step of a cold start
+ * happened, up to the first frame of the catalog list. Filter the log by its tag to see them.
+ *
+ * Before Android 7.0 the start of the process isn't known, and the time this class was first
+ * used is taken instead. The pet provider uses it first, and it is created very early on.
+ */
+public final class StartupTiming {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StartupTiming.class.getSimpleName();
+
+    /** Used as the process start when the system doesn't tell it */
+    private static final long sFirstUseMillis = SystemClock.elapsedRealtime();
+
+    /** Whether the first list frame was drawn, steps after it are not part of the start */
+    private static boolean sFinished;
+
+    private StartupTiming() {}
+
+    /**
+     * Log that a step of the start was reached. Nothing is logged once the start is finished.
+     */
+    public static synchronized void mark(String step) {
+        if (!sFinished) {
+            Log.i(LOG_TAG, step + ": " + (SystemClock.elapsedRealtime() - getProcessStart()) + " ms");
+        }
+    }
+
+    /**
+     * Log the last step of the start, the first frame of the catalog list.
+     */
+    public static synchronized void finish(String step) {
+        mark(step);
+        sFinished = true;
+    }
+
+    public static synchronized boolean isFinished() {
+        return sFinished;
+    }
+
+    private static long getProcessStart() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        return sFirstUseMillis;
+    }
+}
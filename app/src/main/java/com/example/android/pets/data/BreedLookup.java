@@ -0,0 +1,80 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.TextUtils;
+
+import static com.example.android.pets.data.PetDbHelper.BREEDS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_BREED_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_PET_BREED_ID;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link BreedLookup} finds the _ID of a breed in the breeds table, adding the breed if it isn't
+ * there yet. The statements are compiled on first use and reused for every lookup, so a batch of
+ * pets only compiles them once.
+ *
+ * Use it inside the transaction that writes the pets, so no other write can add the same breed
+ * between finding and adding it, and close it when the transaction ends.
+ */
+class BreedLookup {
+
+    private static final String SQL_FIND_BREED = "SELECT " + _ID + " FROM " + BREEDS_TABLE_NAME
+            + " WHERE " + COLUMN_BREED_NAME + " = ?";
+
+    private static final String SQL_INSERT_BREED = "INSERT INTO " + BREEDS_TABLE_NAME
+            + " (" + COLUMN_BREED_NAME + ") VALUES (?)";
+
+    private final SQLiteDatabase mDatabase;
+    private SQLiteStatement mFindStatement;
+    private SQLiteStatement mInsertStatement;
+
+    BreedLookup(SQLiteDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * Returns the _ID of the given breed, or null for no breed. An empty breed is no breed.
+     */
+    Long find(String breed) {
+        if (TextUtils.isEmpty(breed)) {
+            return null;
+        }
+        if (mFindStatement == null) {
+            mFindStatement = mDatabase.compileStatement(SQL_FIND_BREED);
+            mInsertStatement = mDatabase.compileStatement(SQL_INSERT_BREED);
+        }
+        mFindStatement.bindString(1, breed);
+        try {
+            return mFindStatement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // This is the first pet of the breed
+            mInsertStatement.bindString(1, breed);
+            return mInsertStatement.executeInsert();
+        }
+    }
+
+    /**
+     * Returns the values to write to the pets table for the given pet values, with the breed
+     * replaced by the _ID of the breed. Values without a breed are returned as they are.
+     */
+    ContentValues toPetRow(ContentValues values) {
+        if (!values.containsKey(COLUMN_PET_BREED)) {
+            return values;
+        }
+        ContentValues row = new ContentValues(values);
+        row.remove(COLUMN_PET_BREED);
+        row.put(COLUMN_PET_BREED_ID, find(values.getAsString(COLUMN_PET_BREED)));
+        return row;
+    }
+
+    void close() {
+        if (mFindStatement != null) {
+            mFindStatement.close();
+            mInsertStatement.close();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link CatalogSnapshot} holds all the pets of the catalog in memory, one primitive array per
+ * column, so the catalog can be filtered and sorted without going back to the database.
+ *
+ * Names and breeds are stored as codes into a dictionary, so a name or breed that many pets share
+ * is only stored once. A row takes 21 bytes plus its share of the dictionary, where a
+ * {@link Pet} with its own strings takes over a hundred. When every pet has a name of its own the
+ * dictionary holds them all, and the snapshot is no smaller than the pets. CatalogSnapshotBenchmark
+ * measures both.
+ *
+ * Rows are kept in {@link PetsContract.PetEntry#_ID} order, so a pet is found by a binary search
+ * and new pets, which get the highest IDs, are appended. {@link #filter(int, int, int, int[])}
+ * and {@link #sort(int[], int, int)} work on an array of row positions owned by the caller and
+ * don't allocate anything.
+ *
+ * A snapshot is not thread safe, use it from one thread only. {@link CatalogSnapshotObserver}
+ * keeps a snapshot up to date with the provider.
+ */
+public final class CatalogSnapshot {
+
+    /** Columns a snapshot is loaded with, in the order {@link #load(Cursor)} reads them */
+    public static final String[] COLUMNS = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_GENDER, COLUMN_PET_WEIGHT};
+
+    /** Pass as gender to {@link #filter(int, int, int, int[])} to keep pets of any gender */
+    public static final int ANY_GENDER = -1;
+
+    /** Orders of {@link #sort(int[], int, int)} */
+    public static final int ORDER_NAME = 0;
+    public static final int ORDER_WEIGHT = 1;
+    public static final int ORDER_NEWEST = 2;
+
+    /** Code of a missing breed */
+    private static final int NO_STRING = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mNames = new int[INITIAL_CAPACITY];
+    private int[] mBreeds = new int[INITIAL_CAPACITY];
+    private byte[] mGenders = new byte[INITIAL_CAPACITY];
+    private int[] mWeights = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    /** Every name and breed once, the arrays above hold their index in this list */
+    private final List<String> mStrings = new ArrayList<>();
+    private final HashMap<String, Integer> mCodes = new HashMap<>();
+
+    /** Position of every string in name order, rebuilt when strings were added since the last sort */
+    private int[] mStringRanks = new int[0];
+
+    /**
+     * Returns a snapshot of all the pets of a cursor queried with {@link #COLUMNS}.
+     */
+    public static CatalogSnapshot load(Cursor cursor) {
+        CatalogSnapshot snapshot = new CatalogSnapshot();
+        snapshot.ensureCapacity(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            snapshot.put(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getInt(3), cursor.getInt(4));
+        }
+        return snapshot;
+    }
+
+    /** Returns the number of pets */
+    public int size() {
+        return mSize;
+    }
+
+    public long getId(int row) {
+        return mIds[row];
+    }
+
+    public String getName(int row) {
+        return mStrings.get(mNames[row]);
+    }
+
+    /** Returns the breed of the pet in the given row, or null if it has none */
+    public String getBreed(int row) {
+        return mBreeds[row] == NO_STRING ? null : mStrings.get(mBreeds[row]);
+    }
+
+    public int getGender(int row) {
+        return mGenders[row];
+    }
+
+    public int getWeight(int row) {
+        return mWeights[row];
+    }
+
+    /**
+     * Returns the row of the pet with the given ID, or a negative number if there is no such pet.
+     */
+    public int indexOf(long id) {
+        return Arrays.binarySearch(mIds, 0, mSize, id);
+    }
+
+    /**
+     * Add a pet, or replace it if there already is a pet with its ID.
+     */
+    public void put(long id, String name, String breed, int gender, int weight) {
+        int row = indexOf(id);
+        if (row < 0) {
+            row = -row - 1;
+            ensureCapacity(mSize + 1);
+            if (row < mSize) {
+                // Only pets with an older ID than the newest pet need to make room
+                System.arraycopy(mIds, row, mIds, row + 1, mSize - row);
+                System.arraycopy(mNames, row, mNames, row + 1, mSize - row);
+                System.arraycopy(mBreeds, row, mBreeds, row + 1, mSize - row);
+                System.arraycopy(mGenders, row, mGenders, row + 1, mSize - row);
+                System.arraycopy(mWeights, row, mWeights, row + 1, mSize - row);
+            }
+            mSize++;
+        }
+        mIds[row] = id;
+        mNames[row] = encode(name == null ? "" : name);
+        mBreeds[row] = breed == null ? NO_STRING : encode(breed);
+        mGenders[row] = (byte) gender;
+        mWeights[row] = weight;
+    }
+
+    /**
+     * Remove the pet with the given ID, if there is one. Its strings stay in the dictionary
+     * until the snapshot is loaded again.
+     */
+    public void remove(long id) {
+        int row = indexOf(id);
+        if (row < 0) {
+            return;
+        }
+        int moved = mSize - row - 1;
+        System.arraycopy(mIds, row + 1, mIds, row, moved);
+        System.arraycopy(mNames, row + 1, mNames, row, moved);
+        System.arraycopy(mBreeds, row + 1, mBreeds, row, moved);
+        System.arraycopy(mGenders, row + 1, mGenders, row, moved);
+        System.arraycopy(mWeights, row + 1, mWeights, row, moved);
+        mSize--;
+    }
+
+    /**
+     * Find the pets of a gender within a weight range. The rows of the matching pets are written
+     * to the start of the given array, in ID order.
+     *
+     * @param gender    The gender to keep, or {@link #ANY_GENDER}
+     * @param minWeight The lowest weight to keep
+     * @param maxWeight The highest weight to keep
+     * @param rows      Receives the rows, must hold at least {@link #size()} elements
+     * @return the number of matching pets
+     */
+    public int filter(int gender, int minWeight, int maxWeight, int[] rows) {
+        int count = 0;
+        for (int row = 0; row < mSize; row++) {
+            int weight = mWeights[row];
+            if ((gender == ANY_GENDER || mGenders[row] == gender)
+                    && weight >= minWeight && weight <= maxWeight) {
+                rows[count++] = row;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sort the first count rows of the given array in place. Pets that are equal in the given
+     * order are sorted by ID. Sorting by name ignores case.
+     */
+    public void sort(int[] rows, int count, int order) {
+        if (order == ORDER_NAME && mStringRanks.length != mStrings.size()) {
+            rankStrings();
+        }
+        // Heap sort, which needs no extra memory whatever the number of rows
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(rows, i, count, order);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            int row = rows[0];
+            rows[0] = rows[end];
+            rows[end] = row;
+            siftDown(rows, 0, end, order);
+        }
+    }
+
+    private void siftDown(int[] rows, int parent, int count, int order) {
+        int row = rows[parent];
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= count) {
+                break;
+            }
+            if (child + 1 < count && compare(rows[child + 1], rows[child], order) > 0) {
+                child++;
+            }
+            if (compare(rows[child], row, order) <= 0) {
+                break;
+            }
+            rows[parent] = rows[child];
+            parent = child;
+        }
+        rows[parent] = row;
+    }
+
+    private int compare(int a, int b, int order) {
+        int result;
+        switch (order) {
+            case ORDER_NAME:
+                result = compareInts(mStringRanks[mNames[a]], mStringRanks[mNames[b]]);
+                break;
+            case ORDER_WEIGHT:
+                result = compareInts(mWeights[a], mWeights[b]);
+                break;
+            case ORDER_NEWEST:
+                return -compareLongs(mIds[a], mIds[b]);
+            default:
+                throw new IllegalArgumentException("Unknown order " + order);
+        }
+        return result != 0 ? result : compareLongs(mIds[a], mIds[b]);
+    }
+
+    private static int compareInts(int a, int b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    private static int compareLongs(long a, long b) {
+        return a < b ? -1 : (a == b ? 0 : 1);
+    }
+
+    /**
+     * Returns the code of a string, adding it to the dictionary if it isn't there yet.
+     */
+    private int encode(String string) {
+        Integer code = mCodes.get(string);
+        if (code == null) {
+            code = mStrings.size();
+            mStrings.add(string);
+            mCodes.put(string, code);
+        }
+        return code;
+    }
+
+    /**
+     * Work out the position of every string in name order, so names compare as two ints.
+     */
+    private void rankStrings() {
+        Integer[] codes = new Integer[mStrings.size()];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = i;
+        }
+        Arrays.sort(codes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return String.CASE_INSENSITIVE_ORDER.compare(mStrings.get(a), mStrings.get(b));
+            }
+        });
+        mStringRanks = new int[codes.length];
+        for (int rank = 0; rank < codes.length; rank++) {
+            mStringRanks[codes[rank]] = rank;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mNames = Arrays.copyOf(mNames, newCapacity);
+        mBreeds = Arrays.copyOf(mBreeds, newCapacity);
+        mGenders = Arrays.copyOf(mGenders, newCapacity);
+        mWeights = Arrays.copyOf(mWeights, newCapacity);
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.example.android.pets.data.PetsContract.PATH_PETS;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link CatalogSnapshotObserver} keeps a {@link CatalogSnapshot} of the catalog up to date with
+ * the provider. The snapshot is loaded once when the observer is started. After that, a change
+ * of a single pet only reads that pet again, and only changes of many pets at once, which the
+ * provider notifies for the whole table, load the whole snapshot again.
+ *
+ * Pets are read on a background thread and applied to the snapshot on the main thread, in the
+ * order the changes were notified, so the snapshot can be used freely on the main thread.
+ */
+public final class CatalogSnapshotObserver extends ContentObserver {
+
+    /**
+     * Receives the snapshot on the main thread every time it changed.
+     */
+    public interface Listener {
+        void onSnapshotChanged(CatalogSnapshot snapshot);
+    }
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Reads the pets, one change after the other */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** The snapshot, or null until it is first loaded. Only used on the main thread. */
+    private CatalogSnapshot mSnapshot;
+
+    public CatalogSnapshotObserver(Context context, Listener listener) {
+        super(new Handler(Looper.getMainLooper()));
+        mResolver = context.getContentResolver();
+        mListener = listener;
+    }
+
+    /**
+     * Load the snapshot and start following the changes of the catalog.
+     */
+    public void start() {
+        mResolver.registerContentObserver(CONTENT_URI, true, this);
+        reloadAll();
+    }
+
+    /**
+     * Stop following the changes. The observer can't be started again.
+     */
+    public void stop() {
+        mResolver.unregisterContentObserver(this);
+        mExecutor.shutdownNow();
+        mMainHandler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Returns the current snapshot, or null if it isn't loaded yet.
+     */
+    public CatalogSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        // Before Android 4.1 the changed URI isn't known
+        onChange(selfChange, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+        if (uri != null) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() == 2 && PATH_PETS.equals(segments.get(0))
+                    && TextUtils.isDigitsOnly(segments.get(1))) {
+                reloadPet(ContentUris.parseId(uri));
+                return;
+            }
+        }
+        reloadAll();
+    }
+
+    private void reloadAll() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mResolver.query(CONTENT_URI, CatalogSnapshot.COLUMNS, null, null, _ID + " ASC");
+                if (cursor == null) {
+                    return;
+                }
+                final CatalogSnapshot snapshot;
+                try {
+                    snapshot = CatalogSnapshot.load(cursor);
+                } finally {
+                    cursor.close();
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mSnapshot = snapshot;
+                        mListener.onSnapshotChanged(snapshot);
+                    }
+                });
+            }
+        });
+    }
+
+    private void reloadPet(final long id) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Cursor cursor = mResolver.query(ContentUris.withAppendedId(CONTENT_URI, id),
+                        CatalogSnapshot.COLUMNS, null, null, null);
+                if (cursor == null) {
+                    return;
+                }
+                // A deleted pet has no row and is removed from the snapshot. The columns are kept
+                // in the order of CatalogSnapshot.COLUMNS.
+                final Object[] pet;
+                try {
+                    pet = cursor.moveToFirst() ? new Object[] {cursor.getLong(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getInt(3), cursor.getInt(4)} : null;
+                } finally {
+                    cursor.close();
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSnapshot == null) {
+                            // The snapshot is still loading, and will include this change
+                            return;
+                        }
+                        if (pet == null) {
+                            mSnapshot.remove(id);
+                        } else {
+                            mSnapshot.put(id, (String) pet[1], (String) pet[2],
+                                    (Integer) pet[3], (Integer) pet[4]);
+                        }
+                        mListener.onSnapshotChanged(mSnapshot);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * {@link CoalescingCursorLoader} is a {@link CursorLoader} that doesn't query again for every
+ * change notification. A burst of changes is collected until no change came for the length of
+ * the window, and then loaded with one query. While changes keep coming, a query still runs once
+ * the oldest change not loaded yet is as old as the maximum staleness, so the data is never
+ * older than that for long.
+ *
+ * A query that is already running is never thrown away for a change. Changes that come in while
+ * it runs are loaded once it has delivered its result.
+ */
+public class CoalescingCursorLoader extends CursorLoader {
+
+    /** How long to wait for more changes after a change, in milliseconds */
+    private final long mWindowMillis;
+
+    /** Longest time a change waits to be loaded, in milliseconds */
+    private final long mMaxStalenessMillis;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Uptime of the oldest change that isn't loaded yet, or -1 if there is none */
+    private long mFirstChangeMillis = -1;
+
+    /** Whether a query is running */
+    private boolean mLoading;
+
+    private final Runnable mReload = new Runnable() {
+        @Override
+        public void run() {
+            if (mLoading) {
+                // Wait for the running query, the changes are loaded after it delivers
+                return;
+            }
+            mFirstChangeMillis = -1;
+            CoalescingCursorLoader.super.onContentChanged();
+        }
+    };
+
+    /**
+     * Creates a loader for the given query, see {@link CursorLoader}.
+     *
+     * @param windowMillis       How long to wait for more changes after a change
+     * @param maxStalenessMillis Longest time a change waits to be loaded
+     */
+    public CoalescingCursorLoader(Context context, Uri uri, String[] projection, String selection,
+                                  String[] selectionArgs, String sortOrder,
+                                  long windowMillis, long maxStalenessMillis) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+        mWindowMillis = windowMillis;
+        mMaxStalenessMillis = Math.max(maxStalenessMillis, windowMillis);
+    }
+
+    /**
+     * Called on the main thread when the data changed. Schedules one query for the changes that
+     * come in within the window instead of querying right away.
+     */
+    @Override
+    public void onContentChanged() {
+        long now = SystemClock.uptimeMillis();
+        if (mFirstChangeMillis == -1) {
+            mFirstChangeMillis = now;
+        }
+        scheduleReload(now);
+    }
+
+    private void scheduleReload(long now) {
+        mHandler.removeCallbacks(mReload);
+        mHandler.postAtTime(mReload, Math.min(now + mWindowMillis, mFirstChangeMillis + mMaxStalenessMillis));
+    }
+
+    @Override
+    protected void onForceLoad() {
+        mLoading = true;
+        super.onForceLoad();
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        mLoading = false;
+        super.deliverResult(cursor);
+        loadPendingChanges();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        mLoading = false;
+        super.onCanceled(cursor);
+        loadPendingChanges();
+    }
+
+    /**
+     * Schedule a query for the changes that came in while the last query ran. It runs right away
+     * if they already waited for the maximum staleness.
+     */
+    private void loadPendingChanges() {
+        if (mFirstChangeMillis != -1) {
+            scheduleReload(SystemClock.uptimeMillis());
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        mHandler.removeCallbacks(mReload);
+        mFirstChangeMillis = -1;
+        mLoading = false;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.NO_PHOTO;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link Pet} is an immutable snapshot of the pet data shown in the catalog list.
+ * Two snapshots of the same pet are equal when everything shown for the pet is the same.
+ */
+public final class Pet {
+
+    public final long id;
+    public final String name;
+    public final String breed;
+
+    /** Version of the photo of the pet, or {@link PetsContract.PetEntry#NO_PHOTO} */
+    public final long photoVersion;
+
+    public Pet(long id, String name, String breed, long photoVersion) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.photoVersion = photoVersion;
+    }
+
+    /**
+     * Read all the rows of the given cursor into a list of pets. The cursor must contain the
+     * {@link PetsContract.PetEntry#_ID}, name and breed columns. Without the photo version column
+     * the pets have no photo.
+     */
+    public static List<Pet> fromCursor(Cursor cursor) {
+        List<Pet> pets = new ArrayList<>(cursor.getCount());
+        int idColumnIndex = cursor.getColumnIndex(_ID);
+        int nameColumnIndex = cursor.getColumnIndex(COLUMN_PET_NAME);
+        int breedColumnIndex = cursor.getColumnIndex(COLUMN_PET_BREED);
+        int photoVersionColumnIndex = cursor.getColumnIndex(COLUMN_PET_PHOTO_VERSION);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            long photoVersion = photoVersionColumnIndex == -1
+                    ? NO_PHOTO : cursor.getLong(photoVersionColumnIndex);
+            pets.add(new Pet(cursor.getLong(idColumnIndex), cursor.getString(nameColumnIndex),
+                    cursor.getString(breedColumnIndex), photoVersion));
+        }
+        return pets;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet other = (Pet) o;
+        return id == other.id && TextUtils.equals(name, other.name)
+                && TextUtils.equals(breed, other.breed) && photoVersion == other.photoVersion;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (breed != null ? breed.hashCode() : 0);
+        result = 31 * result + (int) (photoVersion ^ (photoVersion >>> 32));
+        return result;
+    }
+}
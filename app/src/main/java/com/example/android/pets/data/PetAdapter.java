@@ -0,0 +1,268 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.pets.R;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetAdapter} is an adapter for a {@link RecyclerView} that shows a list of {@link Pet}s.
+ *
+ * When a new list of pets is set, the difference from the list on screen is worked out on a
+ * background thread, and only the pets that were inserted, removed, moved or changed are updated
+ * in the {@link RecyclerView}.
+ *
+ * The photos of the pets are loaded by the {@link PetThumbnailLoader}, which is told to stop
+ * loading a photo as soon as its row is recycled.
+ *
+ * The list may hold null placeholders for pets that are not loaded, which are shown as blank
+ * rows and can't be clicked. A list with placeholders should be a {@link PlaceholderList}, so
+ * every placeholder keeps its ID from one list to the next.
+ */
+public class PetAdapter extends RecyclerView.Adapter<PetAdapter.ViewHolder> {
+
+    /**
+     * Receives clicks on the pets in the list.
+     */
+    public interface OnPetClickListener {
+        void onPetClick(long id);
+    }
+
+    /**
+     * A list of pets that tells its placeholders apart.
+     */
+    public interface PlaceholderList {
+        /**
+         * Returns the ID of the placeholder at the given position, which must be negative and not
+         * {@link RecyclerView#NO_ID}, and the same in every list for the same placeholder.
+         */
+        long getPlaceholderId(int position);
+    }
+
+    /** Works out the differences between lists, one at a time */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /** Applies the differences on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final OnPetClickListener mOnPetClickListener;
+
+    /** Summary shown for pets without a breed */
+    private final String mUnknownBreed;
+
+    /** Loads the photos of the pets */
+    private final PetThumbnailLoader mThumbnailLoader;
+
+    /** Pets on screen */
+    private List<Pet> mPets = Collections.emptyList();
+
+    /** Counts the lists set, so only the differences for the latest list are applied */
+    private int mGeneration;
+
+    /**
+     * Constructs a new {@link PetAdapter}.
+     *
+     * @param context  The context
+     * @param listener Receives clicks on the pets
+     */
+    public PetAdapter(Context context, OnPetClickListener listener) {
+        mOnPetClickListener = listener;
+        mUnknownBreed = context.getString(R.string.string_unknown_breed);
+        mThumbnailLoader = PetThumbnailLoader.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show the given list of pets. Must be called on the main thread. The list must not be
+     * changed afterwards.
+     */
+    public void setPets(final List<Pet> pets) {
+        final List<Pet> oldPets = mPets;
+        final int generation = ++mGeneration;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new PetDiffCallback(oldPets, pets));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // A newer list was set while this one was being compared, drop it
+                        if (generation != mGeneration) {
+                            return;
+                        }
+                        mPets = pets;
+                        diff.dispatchUpdatesTo(PetAdapter.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns the pets on screen.
+     */
+    public List<Pet> getPets() {
+        return mPets;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mPets.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Pet pet = mPets.get(position);
+        return pet != null ? pet.id : getPlaceholderId(mPets, position);
+    }
+
+    /**
+     * Returns the ID of the placeholder at the given position, or {@link RecyclerView#NO_ID} if
+     * the list can't tell its placeholders apart.
+     */
+    private static long getPlaceholderId(List<Pet> pets, int position) {
+        if (pets instanceof PlaceholderList) {
+            return ((PlaceholderList) pets).getPlaceholderId(position);
+        }
+        return RecyclerView.NO_ID;
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Binds the data of the pet at the given position to the list item views. For example,
+     * the name of the pet is set on the name TextView.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Pet pet = mPets.get(position);
+        if (pet == null) {
+            holder.petNameView.setText(null);
+            holder.petSummaryView.setText(null);
+            mThumbnailLoader.cancel(holder.petPhotoView);
+            holder.petPhotoView.setImageDrawable(null);
+            return;
+        }
+
+        //Check if the breed is unknown by checking if it was blank
+        //and set it as unknown breed if it is blank
+        String petSummary = pet.breed;
+        if (TextUtils.isEmpty(petSummary)) {
+            petSummary = mUnknownBreed;
+        }
+
+        //Set the pet name and the pet summary in the text views
+        holder.petNameView.setText(pet.name);
+        holder.petSummaryView.setText(petSummary);
+
+        //Load the photo of the pet in the background
+        mThumbnailLoader.load(holder.petPhotoView, pet.id, pet.photoVersion);
+    }
+
+    /**
+     * Stops loading the photo of a list item that scrolled off screen, and lets go of its
+     * bitmap, which stays in the cache of the {@link PetThumbnailLoader}.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnailLoader.cancel(holder.petPhotoView);
+        holder.petPhotoView.setImageDrawable(null);
+    }
+
+    /**
+     * Holds the views of a list item, so they are only looked up once when the item is created.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        final TextView petNameView;
+        final TextView petSummaryView;
+        final ImageView petPhotoView;
+
+        ViewHolder(View view) {
+            super(view);
+            petPhotoView = (ImageView) view.findViewById(R.id.photo);
+            petNameView = (TextView) view.findViewById(R.id.name);
+            petSummaryView = (TextView) view.findViewById(R.id.summary);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || mOnPetClickListener == null) {
+                return;
+            }
+            Pet pet = mPets.get(position);
+            if (pet != null) {
+                mOnPetClickListener.onPetClick(pet.id);
+            }
+        }
+    }
+
+    /**
+     * Compares two lists of pets. Pets are the same item when they have the same ID, and their
+     * contents are the same when everything shown for them is equal. Placeholders are the same
+     * item when they have the same placeholder ID, and always look the same.
+     */
+    private static class PetDiffCallback extends DiffUtil.Callback {
+
+        private final List<Pet> mOldPets;
+        private final List<Pet> mNewPets;
+
+        PetDiffCallback(List<Pet> oldPets, List<Pet> newPets) {
+            mOldPets = oldPets;
+            mNewPets = newPets;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldPets.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewPets.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            Pet oldPet = mOldPets.get(oldItemPosition);
+            Pet newPet = mNewPets.get(newItemPosition);
+            if (oldPet == null && newPet == null) {
+                long oldId = getPlaceholderId(mOldPets, oldItemPosition);
+                return oldId != RecyclerView.NO_ID
+                        && oldId == getPlaceholderId(mNewPets, newItemPosition);
+            }
+            if (oldPet == null || newPet == null) {
+                return false;
+            }
+            return oldPet.id == newPet.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            Pet oldPet = mOldPets.get(oldItemPosition);
+            return oldPet == null || oldPet.equals(mNewPets.get(newItemPosition));
+        }
+    }
+}
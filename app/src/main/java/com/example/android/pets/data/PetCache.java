@@ -0,0 +1,130 @@
+package com.example.android.pets.data;
+
+import android.content.ComponentCallbacks2;
+import android.database.Cursor;
+import android.util.LruCache;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link PetCache} keeps the most recently read pets in memory, by ID, so that showing the same
+ * pet again doesn't need to go to the database. Every cached pet holds all the
+ * {@link #COLUMNS} of its row.
+ *
+ * Writers invalidate the pets they changed after their changes are committed. A pet read from the
+ * database is only cached if nothing was invalidated since the read started, so a read that
+ * raced with a write can't put an old row back in the cache.
+ */
+class PetCache {
+
+    /** Columns of a cached pet, in the order they are stored */
+    static final String[] COLUMNS = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_GENDER,
+            COLUMN_PET_WEIGHT, COLUMN_PET_PHOTO_VERSION};
+
+    private final LruCache<Long, Object[]> mPets;
+
+    /** Incremented by every invalidation, guarded by this */
+    private int mGeneration;
+
+    PetCache(int maxPets) {
+        mPets = new LruCache<>(maxPets);
+    }
+
+    /**
+     * Returns the cached row of the pet with the given ID, or null if it isn't cached.
+     */
+    synchronized Object[] get(long id) {
+        return mPets.get(id);
+    }
+
+    /**
+     * Returns the current generation, to pass to {@link #put(long, Object[], int)} after reading
+     * the pet from the database.
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Cache the row of a pet, unless something was invalidated after the given generation.
+     */
+    synchronized void put(long id, Object[] row, int generation) {
+        if (generation == mGeneration) {
+            mPets.put(id, row);
+        }
+    }
+
+    /**
+     * Drop the pet with the given ID. Call it after the change to the pet is committed.
+     */
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    /**
+     * Drop all the pets. Call it after changes to unknown pets are committed.
+     */
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    /**
+     * Give memory back when the system asks for it. The cache is emptied as soon as memory is
+     * getting low or the app is in the background.
+     */
+    synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mPets.evictAll();
+        }
+    }
+
+    int getHitCount() {
+        return mPets.hitCount();
+    }
+
+    int getMissCount() {
+        return mPets.missCount();
+    }
+
+    /**
+     * Read the current row of a cursor queried with {@link #COLUMNS}.
+     */
+    static Object[] readRow(Cursor cursor) {
+        return new Object[] {
+                cursor.getLong(0),
+                cursor.getString(1),
+                cursor.getString(2),
+                cursor.getInt(3),
+                cursor.getInt(4),
+                cursor.getLong(5)
+        };
+    }
+
+    /**
+     * Returns for every column of the projection its position in {@link #COLUMNS}, or null if the
+     * projection asks for anything that isn't cached.
+     */
+    static int[] findColumns(String[] projection) {
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = -1;
+            for (int j = 0; j < COLUMNS.length; j++) {
+                if (COLUMNS[j].equals(projection[i])) {
+                    columns[i] = j;
+                    break;
+                }
+            }
+            if (columns[i] == -1) {
+                return null;
+            }
+        }
+        return columns;
+    }
+}
@@ -1,15 +1,29 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.COLUMN_OPERATION;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.COLUMN_PET_ID;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.COLUMN_SEQUENCE;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.OPERATION_DELETE;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.OPERATION_INSERT;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.OPERATION_UPDATE;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_FEMALE;
+import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_MALE;
+import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_UNKNOWN;
+import static com.example.android.pets.data.PetsContract.PetEntry.NO_PHOTO;
 import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
 import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_PET_COUNT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
 
 /**
  * Created on 9/11/2017.
@@ -20,11 +34,154 @@ public class PetDbHelper extends SQLiteOpenHelper {
     //Name of database
     private static final String DATABASE_NAME = "shelter.db";
 
-    //Database version
-    private static final int DATABASE_VERSION = 1;
+    //Database version, bump it and add a migration step to onUpgrade() for every schema change
+    static final int DATABASE_VERSION = 10;
+
+    //Version of the first schema, created by onCreate() before any migration is applied
+    static final int FIRST_DATABASE_VERSION = 1;
+
+    //Index names
+    public static final String INDEX_PET_NAME = "index_pets_name";
+    public static final String INDEX_PET_BREED = "index_pets_breed";
+    public static final String INDEX_PET_GENDER_WEIGHT = "index_pets_gender_weight";
+    public static final String INDEX_PET_WEIGHT = "index_pets_weight";
+    public static final String INDEX_PET_GENDER_NAME = "index_pets_gender_name";
+    public static final String INDEX_PET_GENDER = "index_pets_gender";
+
+    //Full-text search table over the pet name and breed, its docid is the _ID of the pet
+    public static final String FTS_TABLE_NAME = "pets_fts";
+
+    //Summary tables for the shelter statistics, kept up to date by triggers on the pets table.
+    //The gender table has one row per gender with the number of pets and their total weight,
+    //the breed table has one row per breed in use with the number of pets of that breed.
+    public static final String STATS_GENDER_TABLE_NAME = "pet_stats_gender";
+    public static final String STATS_BREED_TABLE_NAME = "pet_stats_breed";
+    public static final String INDEX_STATS_BREED_COUNT = "index_pet_stats_breed_count";
+
+    //Table of the breeds, every breed is stored once and pets refer to it by its _ID
+    public static final String BREEDS_TABLE_NAME = "breeds";
+    //Column header for the name of a breed in the breeds table, which is a unique text
+    public static final String COLUMN_BREED_NAME = "name";
+    //Column header in the pets table for the _ID of the breed of the pet, null if it has none
+    public static final String COLUMN_PET_BREED_ID = "breed_id";
+
+    //View of the pets with the name of their breed in the breed column, the way the provider
+    //shows them. Read from the view and write to the pets table.
+    public static final String PETS_VIEW_NAME = "pets_view";
+
+    //Log of the changes of the pets, filled by triggers on the pets table while a consumer of
+    //the log is registered. Its columns are the ones of PetChangeEntry.
+    public static final String CHANGES_TABLE_NAME = "pet_changes";
+    //Table of the consumers of the change log, with the last change each one acknowledged
+    public static final String CHANGE_CONSUMERS_TABLE_NAME = "pet_change_consumers";
+    //Column header for the name of a consumer, which is a unique text
+    public static final String COLUMN_CONSUMER_NAME = "name";
+    //Column header for the sequence number of the last change a consumer acknowledged
+    public static final String COLUMN_ACKED_SEQUENCE = "acked_sequence";
+
+    //Progress of the imports of pets, the number of rows of every import that are committed
+    public static final String IMPORTS_TABLE_NAME = "pet_imports";
+    //Column header for the name of an import, which is a unique text
+    public static final String COLUMN_IMPORT_NAME = "name";
+    //Column header for the number of rows of an import that are committed
+    public static final String COLUMN_IMPORTED_ROWS = "imported_rows";
+
+    /**
+     * Connection settings applied every time the database is opened. The defaults suit the app,
+     * pass different ones to {@link #PetDbHelper(Context, Settings)} to tune them.
+     */
+    public static class Settings {
+        //Whether to use write-ahead logging, so readers are not blocked while a write is running
+        public boolean writeAheadLogging = true;
+        //How hard SQLite syncs to disk without write-ahead logging, with it the platform picks
+        public String synchronous = "FULL";
+        //Size of the page cache in KiB
+        public int cacheSizeKb = 2048;
+        //Bytes of the database file read through memory mapping, 0 turns it off
+        public long mmapSizeBytes = 8 * 1024 * 1024;
+        //Number of pages in the WAL file after which SQLite checkpoints on its own
+        public int autoCheckpointPages = 1000;
+        //Number of written rows after which the helper runs a passive checkpoint, 0 turns it off
+        public int checkpointEveryRows = 5000;
+    }
+
+    private final Settings mSettings;
+
+    //Rows written since the last checkpoint
+    private int mRowsSinceCheckpoint;
 
     public PetDbHelper(Context context){
+        this(context, new Settings());
+    }
+
+    public PetDbHelper(Context context, Settings settings){
         super(context,DATABASE_NAME,null,DATABASE_VERSION);
+        mSettings = settings;
+    }
+
+    /**
+     * Apply the connection settings to the primary connection, the one used for writes, which
+     * is also the one that runs checkpoints.
+     *
+     * SQLite counts pragmas as read only statements, and once write-ahead logging is on the
+     * framework runs read only statements on a pool of other connections, through execSQL as
+     * well as rawQuery. So the pragmas are set before write-ahead logging is turned on, while
+     * the primary connection is the only one. Turning write-ahead logging on sets the synchronous
+     * mode of the primary connection to the one the platform uses for write-ahead logging, so
+     * the synchronous setting only applies without it.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        db.execSQL("PRAGMA cache_size = -" + mSettings.cacheSizeKb);
+        runPragma(db, "mmap_size = " + mSettings.mmapSizeBytes);
+        runPragma(db, "wal_autocheckpoint = " + mSettings.autoCheckpointPages);
+        if (mSettings.writeAheadLogging) {
+            db.enableWriteAheadLogging();
+        } else {
+            db.execSQL("PRAGMA synchronous = " + mSettings.synchronous);
+        }
+    }
+
+    /**
+     * Record that rows were written to the database and run a passive checkpoint once enough rows
+     * have been written since the last one. This keeps the WAL file short without waiting for
+     * readers. Checkpoints are put off while the calling thread is inside a transaction.
+     */
+    public void onRowsWritten(int rowCount) {
+        if (mSettings.checkpointEveryRows <= 0 || !mSettings.writeAheadLogging) {
+            return;
+        }
+        synchronized (this) {
+            mRowsSinceCheckpoint += rowCount;
+            if (mRowsSinceCheckpoint < mSettings.checkpointEveryRows) {
+                return;
+            }
+        }
+        SQLiteDatabase db = getWritableDatabase();
+        if (db.inTransaction()) {
+            return;
+        }
+        runPragma(db, "wal_checkpoint(PASSIVE)");
+        synchronized (this) {
+            mRowsSinceCheckpoint = 0;
+        }
+    }
+
+    /**
+     * Run a pragma that returns a row, such as its new value, so it is run as a query. Pragmas
+     * that return nothing are run with execSQL.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -36,12 +193,339 @@ public class PetDbHelper extends SQLiteOpenHelper {
                 + COLUMN_PET_GENDER + " INTEGER NOT NULL, "
                 + COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);";
         db.execSQL(SQL_CREATE_ENTRY);
+
+        // Bring the new database up to date with the same steps used to upgrade existing ones
+        onUpgrade(db, FIRST_DATABASE_VERSION, DATABASE_VERSION);
     }
 
+    /**
+     * Migrate the database one version at a time from oldVersion to newVersion. Every step
+     * changes the schema in place and keeps the existing data. This runs inside a transaction,
+     * so if a step fails the database is left at oldVersion.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            switch (version) {
+                case 2:
+                    migrateToVersion2(db);
+                    break;
+                case 3:
+                    migrateToVersion3(db);
+                    break;
+                case 4:
+                    migrateToVersion4(db);
+                    break;
+                case 5:
+                    migrateToVersion5(db);
+                    break;
+                case 6:
+                    migrateToVersion6(db);
+                    break;
+                case 7:
+                    migrateToVersion7(db);
+                    break;
+                case 8:
+                    migrateToVersion8(db);
+                    break;
+                case 9:
+                    migrateToVersion9(db);
+                    break;
+                case 10:
+                    migrateToVersion10(db);
+                    break;
+                default:
+                    throw new IllegalStateException("No migration to database version " + version);
+            }
+        }
+    }
+
+    /**
+     * Version 2 adds indexes for lookups by name, by breed and by gender and weight.
+     * The name index uses NOCASE collation, so it serves queries that compare or sort
+     * names with COLLATE NOCASE.
+     */
+    private static void migrateToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_NAME + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_BREED + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_BREED + ");");
+        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_GENDER_WEIGHT + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_GENDER + ", " + COLUMN_PET_WEIGHT + ");");
+    }
+
+    /**
+     * Version 3 adds a full-text search table over the name and breed of every pet. It is filled
+     * from the existing pets and kept in sync with the pets table by triggers.
+     */
+    private static void migrateToVersion3(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED + ");");
+        db.execSQL("INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED + ") "
+                + "SELECT " + _ID + ", " + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED + " FROM " + TABLE_NAME + ";");
+
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED + ") "
+                + "VALUES (new." + _ID + ", new." + COLUMN_PET_NAME + ", new." + COLUMN_PET_BREED + "); END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED + " ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + FTS_TABLE_NAME + " SET " + COLUMN_PET_NAME + " = new." + COLUMN_PET_NAME + ", "
+                + COLUMN_PET_BREED + " = new." + COLUMN_PET_BREED + " WHERE docid = old." + _ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + _ID + "; END;");
+    }
+
+    /**
+     * Version 4 adds the summary tables behind the shelter statistics, so reading them doesn't
+     * scan the pets table. They are filled from the existing pets, and triggers on the pets table
+     * add every new pet to its gender and breed and take every deleted pet away. An update is
+     * handled as taking the old pet away and adding the new one.
+     *
+     * Pets without a breed are counted under the breed "". Breeds whose last pet is gone are
+     * removed, so the breed table only grows with the number of breeds in use.
+     */
+    private static void migrateToVersion4(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + STATS_GENDER_TABLE_NAME + "("
+                + COLUMN_PET_GENDER + " INTEGER PRIMARY KEY, "
+                + COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + COLUMN_TOTAL_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE TABLE " + STATS_BREED_TABLE_NAME + "("
+                + COLUMN_PET_BREED + " TEXT PRIMARY KEY NOT NULL, "
+                + COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX " + INDEX_STATS_BREED_COUNT + " ON " + STATS_BREED_TABLE_NAME
+                + "(" + COLUMN_PET_COUNT + ");");
+
+        // Every gender has a row, even without pets, so the triggers only ever update them
+        for (int gender : new int[] { GENDER_UNKNOWN, GENDER_MALE, GENDER_FEMALE }) {
+            db.execSQL("INSERT INTO " + STATS_GENDER_TABLE_NAME + "(" + COLUMN_PET_GENDER + ") VALUES (" + gender + ");");
+        }
+        db.execSQL("UPDATE " + STATS_GENDER_TABLE_NAME + " SET "
+                + COLUMN_PET_COUNT + " = (SELECT COUNT(*) FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_PET_GENDER + " = " + STATS_GENDER_TABLE_NAME + "." + COLUMN_PET_GENDER + "), "
+                + COLUMN_TOTAL_WEIGHT + " = (SELECT IFNULL(SUM(" + COLUMN_PET_WEIGHT + "), 0) FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_PET_GENDER + " = " + STATS_GENDER_TABLE_NAME + "." + COLUMN_PET_GENDER + ");");
+        db.execSQL("INSERT INTO " + STATS_BREED_TABLE_NAME + "(" + COLUMN_PET_BREED + ", " + COLUMN_PET_COUNT + ") "
+                + "SELECT IFNULL(" + COLUMN_PET_BREED + ", ''), COUNT(*) FROM " + TABLE_NAME
+                + " GROUP BY IFNULL(" + COLUMN_PET_BREED + ", '');");
+
+        db.execSQL("CREATE TRIGGER " + STATS_GENDER_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + addPetToStats("new", 1) + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_GENDER_TABLE_NAME + "_update AFTER UPDATE OF "
+                + COLUMN_PET_BREED + ", " + COLUMN_PET_GENDER + ", " + COLUMN_PET_WEIGHT + " ON " + TABLE_NAME + " BEGIN "
+                + addPetToStats("old", -1) + " " + addPetToStats("new", 1) + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_GENDER_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + addPetToStats("old", -1) + " END;");
+    }
+
+    /**
+     * Returns the trigger statements that add the pet in the given row ("new" or "old") to the
+     * summary tables when sign is 1, or take it away when sign is -1.
+     */
+    private static String addPetToStats(String row, int sign) {
+        String breed = "IFNULL(" + row + "." + COLUMN_PET_BREED + ", '')";
+        String statements = "UPDATE " + STATS_GENDER_TABLE_NAME + " SET "
+                + COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT + " + (" + sign + "), "
+                + COLUMN_TOTAL_WEIGHT + " = " + COLUMN_TOTAL_WEIGHT + " + (" + sign + ") * " + row + "." + COLUMN_PET_WEIGHT
+                + " WHERE " + COLUMN_PET_GENDER + " = " + row + "." + COLUMN_PET_GENDER + "; ";
+        if (sign > 0) {
+            statements += "INSERT OR IGNORE INTO " + STATS_BREED_TABLE_NAME + "(" + COLUMN_PET_BREED + ") VALUES (" + breed + "); ";
+        }
+        statements += "UPDATE " + STATS_BREED_TABLE_NAME + " SET "
+                + COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT + " + (" + sign + ")"
+                + " WHERE " + COLUMN_PET_BREED + " = " + breed + ";";
+        if (sign < 0) {
+            statements += " DELETE FROM " + STATS_BREED_TABLE_NAME + " WHERE " + COLUMN_PET_BREED + " = " + breed
+                    + " AND " + COLUMN_PET_COUNT + " <= 0;";
+        }
+        return statements;
+    }
+
+    /**
+     * Version 5 moves the breeds into their own table, so every breed is stored once and the pets
+     * refer to it by its _ID. Empty breeds become no breed. SQLite can't change the type of a
+     * column, so the pets table is copied into a new table with a breed_id column, keeping the
+     * _ID of every pet and the next _ID to hand out.
+     *
+     * Dropping the old table drops its indexes and triggers, so they are created again for the
+     * breed_id column. The breed statistics are counted by breed_id from now on, with 0 for pets
+     * without a breed.
+     */
+    private static void migrateToVersion5(SQLiteDatabase db) {
+        String newTable = TABLE_NAME + "_new";
+        db.execSQL("CREATE TABLE " + BREEDS_TABLE_NAME + "(" + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE);");
+        db.execSQL("INSERT INTO " + BREEDS_TABLE_NAME + "(" + COLUMN_BREED_NAME + ") "
+                + "SELECT DISTINCT " + COLUMN_PET_BREED + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_PET_BREED + " != '' ORDER BY " + COLUMN_PET_BREED + ";");
+
+        db.execSQL("CREATE TABLE " + newTable + "(" + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_PET_NAME + " TEXT NOT NULL, "
+                + COLUMN_PET_BREED_ID + " INTEGER REFERENCES " + BREEDS_TABLE_NAME + "(" + _ID + "), "
+                + COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                + COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("INSERT INTO " + newTable + "(" + _ID + ", " + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID + ", "
+                + COLUMN_PET_GENDER + ", " + COLUMN_PET_WEIGHT + ") "
+                + "SELECT p." + _ID + ", p." + COLUMN_PET_NAME + ", b." + _ID + ", p." + COLUMN_PET_GENDER + ", p." + COLUMN_PET_WEIGHT
+                + " FROM " + TABLE_NAME + " p LEFT JOIN " + BREEDS_TABLE_NAME + " b ON b." + COLUMN_BREED_NAME + " = p." + COLUMN_PET_BREED + ";");
+        // Carry over the last handed out _ID, so the _ID of a deleted pet isn't used again
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + newTable + "';");
+        db.execSQL("INSERT INTO sqlite_sequence(name, seq) SELECT '" + newTable + "', seq FROM sqlite_sequence"
+                + " WHERE name = '" + TABLE_NAME + "';");
+        db.execSQL("DROP TABLE " + TABLE_NAME + ";");
+        db.execSQL("ALTER TABLE " + newTable + " RENAME TO " + TABLE_NAME + ";");
+
+        db.execSQL("CREATE INDEX " + INDEX_PET_NAME + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX " + INDEX_PET_BREED + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_BREED_ID + ");");
+        db.execSQL("CREATE INDEX " + INDEX_PET_GENDER_WEIGHT + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_GENDER + ", " + COLUMN_PET_WEIGHT + ");");
+
+        db.execSQL("CREATE VIEW " + PETS_VIEW_NAME + " AS SELECT "
+                + TABLE_NAME + "." + _ID + " AS " + _ID + ", "
+                + TABLE_NAME + "." + COLUMN_PET_NAME + " AS " + COLUMN_PET_NAME + ", "
+                + BREEDS_TABLE_NAME + "." + COLUMN_BREED_NAME + " AS " + COLUMN_PET_BREED + ", "
+                + TABLE_NAME + "." + COLUMN_PET_GENDER + " AS " + COLUMN_PET_GENDER + ", "
+                + TABLE_NAME + "." + COLUMN_PET_WEIGHT + " AS " + COLUMN_PET_WEIGHT
+                + " FROM " + TABLE_NAME + " LEFT JOIN " + BREEDS_TABLE_NAME
+                + " ON " + BREEDS_TABLE_NAME + "." + _ID + " = " + TABLE_NAME + "." + COLUMN_PET_BREED_ID + ";");
+
+        // The full-text search table keeps the breed name, looked up from the breeds table
+        String newBreed = "(SELECT " + COLUMN_BREED_NAME + " FROM " + BREEDS_TABLE_NAME
+                + " WHERE " + _ID + " = new." + COLUMN_PET_BREED_ID + ")";
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + "INSERT INTO " + FTS_TABLE_NAME + "(docid, " + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED + ") "
+                + "VALUES (new." + _ID + ", new." + COLUMN_PET_NAME + ", " + newBreed + "); END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID + " ON " + TABLE_NAME + " BEGIN "
+                + "UPDATE " + FTS_TABLE_NAME + " SET " + COLUMN_PET_NAME + " = new." + COLUMN_PET_NAME + ", "
+                + COLUMN_PET_BREED + " = " + newBreed + " WHERE docid = old." + _ID + "; END;");
+        db.execSQL("CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + "DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + _ID + "; END;");
+
+        db.execSQL("DROP TABLE " + STATS_BREED_TABLE_NAME + ";");
+        db.execSQL("CREATE TABLE " + STATS_BREED_TABLE_NAME + "("
+                + COLUMN_PET_BREED_ID + " INTEGER PRIMARY KEY, "
+                + COLUMN_PET_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX " + INDEX_STATS_BREED_COUNT + " ON " + STATS_BREED_TABLE_NAME
+                + "(" + COLUMN_PET_COUNT + ");");
+        db.execSQL("INSERT INTO " + STATS_BREED_TABLE_NAME + "(" + COLUMN_PET_BREED_ID + ", " + COLUMN_PET_COUNT + ") "
+                + "SELECT IFNULL(" + COLUMN_PET_BREED_ID + ", 0), COUNT(*) FROM " + TABLE_NAME
+                + " GROUP BY IFNULL(" + COLUMN_PET_BREED_ID + ", 0);");
+        db.execSQL("CREATE TRIGGER " + STATS_GENDER_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME + " BEGIN "
+                + addPetToStatsByBreedId("new", 1) + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_GENDER_TABLE_NAME + "_update AFTER UPDATE OF "
+                + COLUMN_PET_BREED_ID + ", " + COLUMN_PET_GENDER + ", " + COLUMN_PET_WEIGHT + " ON " + TABLE_NAME + " BEGIN "
+                + addPetToStatsByBreedId("old", -1) + " " + addPetToStatsByBreedId("new", 1) + " END;");
+        db.execSQL("CREATE TRIGGER " + STATS_GENDER_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME + " BEGIN "
+                + addPetToStatsByBreedId("old", -1) + " END;");
+    }
+
+    /**
+     * Version 6 adds the photo version of every pet. The photos themselves are files kept by
+     * {@link PetPhotoStore}. The view of the pets is created again to show the new column.
+     */
+    private static void migrateToVersion6(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_PET_PHOTO_VERSION
+                + " INTEGER NOT NULL DEFAULT " + NO_PHOTO + ";");
+        db.execSQL("DROP VIEW " + PETS_VIEW_NAME + ";");
+        db.execSQL("CREATE VIEW " + PETS_VIEW_NAME + " AS SELECT "
+                + TABLE_NAME + "." + _ID + " AS " + _ID + ", "
+                + TABLE_NAME + "." + COLUMN_PET_NAME + " AS " + COLUMN_PET_NAME + ", "
+                + BREEDS_TABLE_NAME + "." + COLUMN_BREED_NAME + " AS " + COLUMN_PET_BREED + ", "
+                + TABLE_NAME + "." + COLUMN_PET_GENDER + " AS " + COLUMN_PET_GENDER + ", "
+                + TABLE_NAME + "." + COLUMN_PET_WEIGHT + " AS " + COLUMN_PET_WEIGHT + ", "
+                + TABLE_NAME + "." + COLUMN_PET_PHOTO_VERSION + " AS " + COLUMN_PET_PHOTO_VERSION
+                + " FROM " + TABLE_NAME + " LEFT JOIN " + BREEDS_TABLE_NAME
+                + " ON " + BREEDS_TABLE_NAME + "." + _ID + " = " + TABLE_NAME + "." + COLUMN_PET_BREED_ID + ";");
+    }
+
+    /**
+     * Version 7 adds the change log and its consumers. Triggers on the pets table log every
+     * insert, update and delete of a pet, but only while a consumer is registered, so nothing is
+     * written to the log while no one reads it. AUTOINCREMENT keeps the sequence numbers growing
+     * after old changes were removed from the log.
+     */
+    private static void migrateToVersion7(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + CHANGES_TABLE_NAME + "("
+                + COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_OPERATION + " INTEGER NOT NULL, "
+                + COLUMN_PET_ID + " INTEGER NOT NULL);");
+        db.execSQL("CREATE TABLE " + CHANGE_CONSUMERS_TABLE_NAME + "("
+                + COLUMN_CONSUMER_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_ACKED_SEQUENCE + " INTEGER NOT NULL);");
+
+        db.execSQL("CREATE TRIGGER " + CHANGES_TABLE_NAME + "_insert AFTER INSERT ON " + TABLE_NAME
+                + logChange(OPERATION_INSERT, "new"));
+        db.execSQL("CREATE TRIGGER " + CHANGES_TABLE_NAME + "_update AFTER UPDATE ON " + TABLE_NAME
+                + logChange(OPERATION_UPDATE, "new"));
+        db.execSQL("CREATE TRIGGER " + CHANGES_TABLE_NAME + "_delete AFTER DELETE ON " + TABLE_NAME
+                + logChange(OPERATION_DELETE, "old"));
+    }
+
+    /**
+     * Version 8 adds the indexes for the filters and sort orders of the catalog. Sorting by
+     * weight without a gender reads the weight index in order, and a gender sorted by name, with
+     * or without a name prefix, reads one range of the gender and name index. Sorting a gender by
+     * weight already reads the gender and weight index in order.
+     */
+    private static void migrateToVersion8(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_PET_WEIGHT + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_WEIGHT + ");");
+        db.execSQL("CREATE INDEX " + INDEX_PET_GENDER_NAME + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_GENDER + ", " + COLUMN_PET_NAME + " COLLATE NOCASE);");
+    }
+
+    /**
+     * Version 9 adds an index on the gender alone. Every index ends with the _ID of the row, so
+     * the pets of a gender are read from it in _ID order, oldest or newest first, without
+     * sorting them. The gender and weight index is in weight order within a gender instead.
+     */
+    private static void migrateToVersion9(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_PET_GENDER + " ON " + TABLE_NAME
+                + "(" + COLUMN_PET_GENDER + ");");
+    }
+
+    /**
+     * Version 10 adds the progress of the imports, which the provider updates in the same
+     * transaction as the pets of every chunk of an import.
+     */
+    private static void migrateToVersion10(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + IMPORTS_TABLE_NAME + "("
+                + COLUMN_IMPORT_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_IMPORTED_ROWS + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Returns the condition and body of a trigger that logs the given operation on the "new" or
+     * "old" row.
+     */
+    private static String logChange(int operation, String row) {
+        return " WHEN EXISTS (SELECT 1 FROM " + CHANGE_CONSUMERS_TABLE_NAME + ") BEGIN "
+                + "INSERT INTO " + CHANGES_TABLE_NAME + " (" + COLUMN_OPERATION + ", " + COLUMN_PET_ID + ") "
+                + "VALUES (" + operation + ", " + row + "." + _ID + "); END;";
+    }
 
-        String SQL_DELETE_ENTRIES = "DROP TABLE IF EXISTS " + TABLE_NAME + ";";
-        //db.execSQL(SQL_DELETE_ENTRIES);
+    /**
+     * Same as {@link #addPetToStats(String, int)}, for the summary tables of version 5 where the
+     * breeds are counted by their _ID.
+     */
+    private static String addPetToStatsByBreedId(String row, int sign) {
+        String breedId = "IFNULL(" + row + "." + COLUMN_PET_BREED_ID + ", 0)";
+        String statements = "UPDATE " + STATS_GENDER_TABLE_NAME + " SET "
+                + COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT + " + (" + sign + "), "
+                + COLUMN_TOTAL_WEIGHT + " = " + COLUMN_TOTAL_WEIGHT + " + (" + sign + ") * " + row + "." + COLUMN_PET_WEIGHT
+                + " WHERE " + COLUMN_PET_GENDER + " = " + row + "." + COLUMN_PET_GENDER + "; ";
+        if (sign > 0) {
+            statements += "INSERT OR IGNORE INTO " + STATS_BREED_TABLE_NAME + "(" + COLUMN_PET_BREED_ID + ") VALUES (" + breedId + "); ";
+        }
+        statements += "UPDATE " + STATS_BREED_TABLE_NAME + " SET "
+                + COLUMN_PET_COUNT + " = " + COLUMN_PET_COUNT + " + (" + sign + ")"
+                + " WHERE " + COLUMN_PET_BREED_ID + " = " + breedId + ";";
+        if (sign < 0) {
+            statements += " DELETE FROM " + STATS_BREED_TABLE_NAME + " WHERE " + COLUMN_PET_BREED_ID + " = " + breedId
+                    + " AND " + COLUMN_PET_COUNT + " <= 0;";
+        }
+        return statements;
     }
 }
@@ -0,0 +1,185 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static com.example.android.pets.data.PetDbHelper.PETS_VIEW_NAME;
+import static com.example.android.pets.data.PetsContract.MIME_TYPE_NDJSON;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link PetExportWriter} writes all the pets into the write end of a pipe, as CSV or as
+ * newline-delimited JSON. It is run by {@link ContentProvider#openPipeHelper} on a background
+ * thread while the app that opened the export reads the other end.
+ *
+ * The pets are read in chunks of {@link #CHUNK_SIZE} rows, in {@link PetsContract.PetEntry#_ID}
+ * order, and every chunk is written out before the next one is read. The writer blocks while the
+ * pipe is full, so however many pets there are, only one chunk and one buffer are held in memory.
+ */
+class PetExportWriter implements ContentProvider.PipeDataWriter<Void> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetExportWriter.class.getSimpleName();
+
+    /** Number of pets read from the database at a time */
+    private static final int CHUNK_SIZE = 500;
+
+    /** Size of the buffer in front of the pipe, in characters */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** Columns of the export, in the order they are written */
+    private static final String[] COLUMNS = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_GENDER, COLUMN_PET_WEIGHT};
+
+    private final PetDbHelper mDbHelper;
+
+    /** Receives the number of pets written when an export is finished */
+    private final PetProviderMetrics mMetrics;
+
+    /** URI match code the export is recorded under */
+    private final int mMatch;
+
+    PetExportWriter(PetDbHelper dbHelper, PetProviderMetrics metrics, int match) {
+        mDbHelper = dbHelper;
+        mMetrics = metrics;
+        mMatch = match;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType,
+                                Bundle opts, Void args) {
+        long startNanos = System.nanoTime();
+        boolean json = MIME_TYPE_NDJSON.equals(mimeType);
+        FileOutputStream stream = new FileOutputStream(output.getFileDescriptor());
+        Writer writer = null;
+        int rows = 0;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), BUFFER_SIZE);
+            if (!json) {
+                writeCsvHeader(writer);
+            }
+
+            SQLiteDatabase database = mDbHelper.getReadableDatabase();
+            long lastId = -1;
+            int chunkRows;
+            do {
+                // Each chunk starts after the last pet of the previous one, so a chunk costs the
+                // same however far into the table it is
+                Cursor cursor = database.query(PETS_VIEW_NAME, COLUMNS, _ID + ">?",
+                        new String[] { String.valueOf(lastId) }, null, null, _ID + " ASC",
+                        String.valueOf(CHUNK_SIZE));
+                try {
+                    chunkRows = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        if (json) {
+                            writeJsonRow(writer, cursor);
+                        } else {
+                            writeCsvRow(writer, cursor);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                rows += chunkRows;
+            } while (chunkRows == CHUNK_SIZE);
+            writer.flush();
+        } catch (IOException e) {
+            // Most likely the reader closed its end of the pipe before the end of the export
+            Log.w(LOG_TAG, "Export of " + uri + " stopped after " + rows + " pets", e);
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // The pipe is closed anyway
+            }
+            mMetrics.record(PetProviderMetrics.OPERATION_EXPORT, mMatch, startNanos, rows);
+        }
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(COLUMNS[i]);
+        }
+        writer.write('\n');
+    }
+
+    /**
+     * Write the current pet of the cursor as a CSV line. Text is quoted when it holds a comma,
+     * a quote or a line break, and a pet without a breed gets an empty field.
+     */
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(',');
+        writeCsvText(writer, cursor.getString(1));
+        writer.write(',');
+        writeCsvText(writer, cursor.getString(2));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write('\n');
+    }
+
+    private static void writeCsvText(Writer writer, String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Write the current pet of the cursor as a JSON object on its own line, with a null breed
+     * for a pet without a breed.
+     */
+    private static void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        String breed = cursor.getString(2);
+        writer.write("{\"" + _ID + "\":");
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(",\"" + COLUMN_PET_NAME + "\":");
+        writer.write(JSONObject.quote(cursor.getString(1)));
+        writer.write(",\"" + COLUMN_PET_BREED + "\":");
+        writer.write(breed == null ? "null" : JSONObject.quote(breed));
+        writer.write(",\"" + COLUMN_PET_GENDER + "\":");
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(",\"" + COLUMN_PET_WEIGHT + "\":");
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write("}\n");
+    }
+}
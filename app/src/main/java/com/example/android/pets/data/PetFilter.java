@@ -0,0 +1,117 @@
+package com.example.android.pets.data;
+
+import android.net.Uri;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_GENDER;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_MAX_WEIGHT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_MIN_WEIGHT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_NAME_PREFIX;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_SORT;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static com.example.android.pets.data.PetsContract.SORT_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+
+/**
+ * {@link PetFilter} is an immutable set of filters and a sort order for the pets, turned into the
+ * query parameters of {@link PetsContract.PetEntry#CONTENT_URI}. Every field is null when it
+ * doesn't filter the pets, and a null sort keeps the pets in the order they were added.
+ */
+public final class PetFilter {
+
+    /** Shows every pet in the order they were added */
+    public static final PetFilter NONE = new PetFilter(null, null, null, null, null);
+
+    /** Keys used to save the filter in a {@link Bundle} */
+    private static final String KEY_GENDER = "gender";
+    private static final String KEY_MIN_WEIGHT = "min_weight";
+    private static final String KEY_MAX_WEIGHT = "max_weight";
+    private static final String KEY_NAME_PREFIX = "name_prefix";
+    private static final String KEY_SORT = "sort";
+
+    /** One of the GENDER_ variables of {@link PetsContract.PetEntry} */
+    public final Integer gender;
+    public final Integer minWeight;
+    public final Integer maxWeight;
+    public final String namePrefix;
+    /** One of the SORT_ variables of {@link PetsContract} */
+    public final String sort;
+
+    public PetFilter(Integer gender, Integer minWeight, Integer maxWeight, String namePrefix,
+                     String sort) {
+        this.gender = gender;
+        this.minWeight = minWeight;
+        this.maxWeight = maxWeight;
+        this.namePrefix = TextUtils.isEmpty(namePrefix) ? null : namePrefix;
+        this.sort = sort;
+    }
+
+    /**
+     * Returns the column the pets are sorted by before their _ID, whose value must be passed with
+     * the _ID to page through them, or null if they are sorted by _ID only.
+     */
+    public String getSortKeyColumn() {
+        if (SORT_NAME.equals(sort)) {
+            return COLUMN_PET_NAME;
+        } else if (SORT_WEIGHT.equals(sort)) {
+            return COLUMN_PET_WEIGHT;
+        }
+        return null;
+    }
+
+    /**
+     * Add the query parameters of the filter to a URI of the pets.
+     */
+    public Uri.Builder appendTo(Uri.Builder builder) {
+        if (gender != null) {
+            builder.appendQueryParameter(QUERY_PARAMETER_GENDER, String.valueOf(gender));
+        }
+        if (minWeight != null) {
+            builder.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, String.valueOf(minWeight));
+        }
+        if (maxWeight != null) {
+            builder.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, String.valueOf(maxWeight));
+        }
+        if (namePrefix != null) {
+            builder.appendQueryParameter(QUERY_PARAMETER_NAME_PREFIX, namePrefix);
+        }
+        if (sort != null) {
+            builder.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+        }
+        return builder;
+    }
+
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        if (gender != null) {
+            bundle.putInt(KEY_GENDER, gender);
+        }
+        if (minWeight != null) {
+            bundle.putInt(KEY_MIN_WEIGHT, minWeight);
+        }
+        if (maxWeight != null) {
+            bundle.putInt(KEY_MAX_WEIGHT, maxWeight);
+        }
+        bundle.putString(KEY_NAME_PREFIX, namePrefix);
+        bundle.putString(KEY_SORT, sort);
+        return bundle;
+    }
+
+    /**
+     * Returns the filter saved with {@link #toBundle()}, or {@link #NONE} if the bundle is null.
+     */
+    public static PetFilter fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return NONE;
+        }
+        return new PetFilter(getInteger(bundle, KEY_GENDER), getInteger(bundle, KEY_MIN_WEIGHT),
+                getInteger(bundle, KEY_MAX_WEIGHT), bundle.getString(KEY_NAME_PREFIX),
+                bundle.getString(KEY_SORT));
+    }
+
+    private static Integer getInteger(Bundle bundle, String key) {
+        return bundle.containsKey(key) ? bundle.getInt(key) : null;
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.TextUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.pets.data.PetsContract.BASE_CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.EXTRA_IMPORTED_ROWS;
+import static com.example.android.pets.data.PetsContract.METHOD_FINISH_IMPORT;
+import static com.example.android.pets.data.PetsContract.METHOD_GET_IMPORT_PROGRESS;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_IMPORT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_IMPORT_ROWS;
+
+/**
+ * {@link PetImporter} adds the pets of a CSV file to the provider, for example a file written by
+ * the CSV export. The first line of the file names the columns: name, breed, gender and weight
+ * are imported, any other column (like the _id of the export) is ignored.
+ *
+ * The file is parsed as it is read, and the pets are inserted in chunks with
+ * {@link ContentResolver#bulkInsert(android.net.Uri, ContentValues[])}, one transaction per chunk.
+ * The next chunk is only read once the previous one is committed, so memory stays the same
+ * however big the file is. Every pet is checked with the same rules as a single insert.
+ *
+ * Imports are resumable. Every import has a name, and the provider records how many rows of the
+ * import are committed in the same transaction as each chunk, so the recorded progress can never
+ * run ahead of or fall behind the pets. An import that stopped, even because the process was
+ * killed, can be started again with the same name on the same file: it skips the rows that were
+ * already committed. The progress is forgotten once an import reaches the end of its file.
+ *
+ * An import reads from the stream and writes to the database on the calling thread, so it must
+ * not be run on the main thread.
+ */
+public final class PetImporter {
+
+    /** Number of pets committed per transaction when no chunk size is given */
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    /**
+     * Receives the progress of an import, after every committed chunk, on the importing thread.
+     */
+    public interface ProgressListener {
+        /**
+         * @param committedRows number of pets of the file committed so far, including the ones
+         *                      skipped when resuming
+         * @param rowsPerSecond number of pets committed per second by this import
+         */
+        void onProgress(long committedRows, long rowsPerSecond);
+    }
+
+    private final ContentResolver mResolver;
+    private final int mChunkSize;
+    private final ProgressListener mListener;
+
+    /**
+     * @param resolver  The content resolver to insert the pets with
+     * @param chunkSize Number of pets committed per transaction
+     * @param listener  Receives the progress of the import, can be null
+     */
+    public PetImporter(ContentResolver resolver, int chunkSize, ProgressListener listener) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mResolver = resolver;
+        mChunkSize = chunkSize;
+        mListener = listener;
+    }
+
+    /**
+     * Import the pets of a UTF-8 CSV stream. The stream is not closed.
+     *
+     * If a pet is invalid, an {@link IllegalArgumentException} naming its row is thrown. The pets
+     * of the chunks before it are committed, as reported by the last progress, and importing the
+     * file again under the same name resumes after them.
+     *
+     * @param in         The CSV stream, starting with the header line
+     * @param importName Name of the import, the same for every attempt to import the same file
+     * @return the number of pets of the file that are committed, including the skipped ones
+     */
+    public long importCsv(InputStream in, String importName) throws IOException {
+        if (TextUtils.isEmpty(importName)) {
+            throw new IllegalArgumentException("An import requires a name");
+        }
+        // Skip the rows committed by an earlier attempt of this import
+        Bundle progress = mResolver.call(BASE_CONTENT_URI, METHOD_GET_IMPORT_PROGRESS, importName,
+                null);
+        long skipRows = progress != null ? progress.getLong(EXTRA_IMPORTED_ROWS) : 0;
+
+        CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+
+        // Find the columns to import in the header
+        List<String> fields = reader.readRecord();
+        if (fields == null) {
+            finish(importName);
+            return 0;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            // Drop a byte order mark and spaces around the column names
+            fields.set(i, fields.get(i).replace("\uFEFF", "").trim());
+        }
+        int nameColumn = fields.indexOf(COLUMN_PET_NAME);
+        int breedColumn = fields.indexOf(COLUMN_PET_BREED);
+        int genderColumn = fields.indexOf(COLUMN_PET_GENDER);
+        int weightColumn = fields.indexOf(COLUMN_PET_WEIGHT);
+
+        long startMillis = SystemClock.elapsedRealtime();
+        long committedRows = 0;
+        ContentValues[] chunk = new ContentValues[mChunkSize];
+        int chunkRows = 0;
+        while ((fields = reader.readRecord()) != null) {
+            if (committedRows + chunkRows < skipRows) {
+                // This pet was committed by the import that is resumed
+                committedRows++;
+                continue;
+            }
+            long row = committedRows + chunkRows + 1;
+            ContentValues values = new ContentValues();
+            try {
+                values.put(COLUMN_PET_NAME, getField(fields, nameColumn));
+                values.put(COLUMN_PET_BREED, getField(fields, breedColumn));
+                values.put(COLUMN_PET_GENDER, parseNumber(getField(fields, genderColumn)));
+                values.put(COLUMN_PET_WEIGHT, parseNumber(getField(fields, weightColumn)));
+                PetProvider.validatePet(values);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Row " + row + ": " + e.getMessage(), e);
+            }
+
+            chunk[chunkRows++] = values;
+            if (chunkRows == mChunkSize) {
+                committedRows += commit(importName, chunk, chunkRows, skipRows, committedRows,
+                        startMillis);
+                chunkRows = 0;
+            }
+        }
+        if (chunkRows > 0) {
+            committedRows += commit(importName, chunk, chunkRows, skipRows, committedRows,
+                    startMillis);
+        }
+        finish(importName);
+        return committedRows;
+    }
+
+    /**
+     * Insert the first rows of the chunk in one transaction, along with the progress of the
+     * import, and report the progress. Returns the number of rows committed.
+     */
+    private int commit(String importName, ContentValues[] chunk, int rows, long skipRows,
+                       long committedRows, long startMillis) {
+        ContentValues[] values = chunk;
+        if (rows < chunk.length) {
+            values = new ContentValues[rows];
+            System.arraycopy(chunk, 0, values, 0, rows);
+        }
+        Uri uri = CONTENT_URI.buildUpon()
+                .appendQueryParameter(QUERY_PARAMETER_IMPORT, importName)
+                .appendQueryParameter(QUERY_PARAMETER_IMPORT_ROWS,
+                        String.valueOf(committedRows + rows))
+                .build();
+        mResolver.bulkInsert(uri, values);
+        // Drop the committed pets, so they can be collected while the next chunk is read
+        for (int i = 0; i < rows; i++) {
+            chunk[i] = null;
+        }
+
+        if (mListener != null) {
+            long total = committedRows + rows;
+            long importedRows = total - Math.max(skipRows, 0);
+            long elapsedMillis = Math.max(SystemClock.elapsedRealtime() - startMillis, 1);
+            mListener.onProgress(total, importedRows * 1000 / elapsedMillis);
+        }
+        return rows;
+    }
+
+    /**
+     * Forget the progress of an import that reached the end of its file, so importing the file
+     * again under the same name imports it from the start.
+     */
+    private void finish(String importName) {
+        mResolver.call(BASE_CONTENT_URI, METHOD_FINISH_IMPORT, importName, null);
+    }
+
+    /**
+     * Returns the field in the given column, or null if the file has no such column or the
+     * field is empty.
+     */
+    private static String getField(List<String> fields, int column) {
+        if (column < 0 || column >= fields.size()) {
+            return null;
+        }
+        String field = fields.get(column);
+        return TextUtils.isEmpty(field) ? null : field;
+    }
+
+    /**
+     * Parse a number field, which is null when it is missing. The provider rejects missing
+     * numbers with the same message as a single insert.
+     */
+    private static Integer parseNumber(String field) {
+        if (field == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(field.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number " + field);
+        }
+    }
+
+    /**
+     * Reads the records of a CSV stream one at a time. Fields can be quoted with double quotes,
+     * and a quoted field can hold commas, line breaks and doubled quotes.
+     */
+    private static class CsvReader {
+
+        private final Reader mReader;
+
+        /** Fields of the current record, reused for every record */
+        private final List<String> mFields = new ArrayList<>();
+
+        /** Text of the current field, reused for every field */
+        private final StringBuilder mField = new StringBuilder();
+
+        /** Character read ahead after a closing quote, or -2 if there is none */
+        private int mPeeked = -2;
+
+        CsvReader(Reader reader) {
+            mReader = reader;
+        }
+
+        private int read() throws IOException {
+            if (mPeeked != -2) {
+                int c = mPeeked;
+                mPeeked = -2;
+                return c;
+            }
+            return mReader.read();
+        }
+
+        /**
+         * Returns the fields of the next record, or null at the end of the stream. The list is
+         * only valid until the next call. Empty lines are skipped.
+         */
+        List<String> readRecord() throws IOException {
+            mFields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            boolean empty = true;
+            int c;
+            while ((c = read()) != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                            mPeeked = next;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    empty = false;
+                } else if (c == ',') {
+                    mFields.add(mField.toString());
+                    mField.setLength(0);
+                    empty = false;
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        int next = read();
+                        if (next != '\n') {
+                            mPeeked = next;
+                        }
+                    }
+                    if (!empty) {
+                        break;
+                    }
+                } else {
+                    mField.append((char) c);
+                    empty = false;
+                }
+            }
+            if (empty) {
+                return null;
+            }
+            mFields.add(mField.toString());
+            return mFields;
+        }
+    }
+}
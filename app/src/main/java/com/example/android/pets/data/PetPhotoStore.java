@@ -0,0 +1,211 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.NO_PHOTO;
+import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * {@link PetPhotoStore} keeps the photos of the pets as files in the private files of the app,
+ * one file per pet named after its _ID.
+ *
+ * A new photo is written through a pipe into a temporary file, and only replaces the old photo
+ * when the writer closes the pipe, so a reader never sees half a photo. The photos of deleted
+ * pets are removed by a clean-up in the background.
+ */
+class PetPhotoStore {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetPhotoStore.class.getSimpleName();
+
+    private static final String PHOTO_DIRECTORY = "photos";
+
+    /** Suffix of the photos being written */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** Largest photo accepted, bigger photos are dropped */
+    private static final long MAX_PHOTO_BYTES = 16 * 1024 * 1024;
+
+    /** Runs the clean-ups, one at a time */
+    private static final Executor CLEAN_UP_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Told when a photo was written, on the thread that wrote it.
+     */
+    interface OnPhotoWrittenListener {
+        /**
+         * @param id       The _ID of the pet
+         * @param hasPhoto Whether the pet has a photo now, false if an empty photo removed it
+         */
+        void onPhotoWritten(long id, boolean hasPhoto);
+    }
+
+    private final File mDirectory;
+    private final PetDbHelper mDbHelper;
+
+    /** Whether a clean-up is waiting to run */
+    private final AtomicBoolean mCleanUpPending = new AtomicBoolean();
+
+    PetPhotoStore(Context context, PetDbHelper dbHelper) {
+        mDirectory = new File(context.getFilesDir(), PHOTO_DIRECTORY);
+        mDbHelper = dbHelper;
+    }
+
+    private File getPhotoFile(long id) {
+        return new File(mDirectory, Long.toString(id));
+    }
+
+    /**
+     * Open the photo of the pet with the given ID for reading.
+     */
+    ParcelFileDescriptor openPhoto(long id) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(getPhotoFile(id), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Returns the write end of a pipe for a new photo of the pet with the given ID. The photo is
+     * copied from the pipe on a background thread, and the listener is told once it is in place.
+     */
+    ParcelFileDescriptor openPhotoForWriting(final long id, final OnPhotoWrittenListener listener)
+            throws FileNotFoundException {
+        final ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Can't open a pipe for the photo of pet " + id);
+        }
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe[0]);
+                try {
+                    copyPhoto(id, in, listener);
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // The pipe is closed anyway
+                    }
+                }
+            }
+        });
+        return pipe[1];
+    }
+
+    /**
+     * Copy a new photo into place and tell the listener, while holding the lock so a clean-up
+     * doesn't run in between. If the photo can't be written, the old one is kept.
+     */
+    private void copyPhoto(long id, InputStream in, OnPhotoWrittenListener listener) {
+        File temp = null;
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDirectory);
+            }
+            temp = File.createTempFile(id + "-", TEMP_SUFFIX, mDirectory);
+            long size = 0;
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    size += read;
+                    if (size > MAX_PHOTO_BYTES) {
+                        throw new IOException("Photo of pet " + id + " is too big");
+                    }
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+
+            File photo = getPhotoFile(id);
+            synchronized (this) {
+                if (size == 0) {
+                    // An empty photo removes the photo
+                    photo.delete();
+                    listener.onPhotoWritten(id, false);
+                    return;
+                }
+                if (!temp.renameTo(photo)) {
+                    throw new IOException("Can't move the photo of pet " + id + " into place");
+                }
+                temp = null;
+                listener.onPhotoWritten(id, true);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Photo of pet " + id + " not written", e);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete the photos of the pets that are gone, on a background thread. Call it after pets
+     * were deleted. Only committed deletes are seen, so a delete that is rolled back keeps its
+     * photos. Clean-ups asked for while one is waiting to run are done by that one.
+     */
+    void scheduleCleanUp() {
+        if (mCleanUpPending.compareAndSet(false, true)) {
+            CLEAN_UP_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mCleanUpPending.set(false);
+                    cleanUp();
+                }
+            });
+        }
+    }
+
+    private void cleanUp() {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length == 0) {
+            return;
+        }
+        // Holding the lock, no photo is put in place between reading the pets and deleting
+        synchronized (this) {
+            long[] ids;
+            Cursor cursor = mDbHelper.getReadableDatabase().query(TABLE_NAME, new String[] { _ID },
+                    COLUMN_PET_PHOTO_VERSION + "!=" + NO_PHOTO, null, null, null, _ID + " ASC");
+            try {
+                ids = new long[cursor.getCount()];
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    continue;
+                }
+                try {
+                    if (Arrays.binarySearch(ids, Long.parseLong(file.getName())) < 0) {
+                        file.delete();
+                    }
+                } catch (NumberFormatException e) {
+                    file.delete();
+                }
+            }
+        }
+    }
+}
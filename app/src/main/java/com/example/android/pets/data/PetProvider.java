@@ -1,19 +1,93 @@
 package com.example.android.pets.data;
 
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.pets.StartupTiming;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 import static android.R.attr.id;
+import static com.example.android.pets.data.PetDbHelper.BREEDS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.CHANGES_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.CHANGE_CONSUMERS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_ACKED_SEQUENCE;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_BREED_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_CONSUMER_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_IMPORTED_ROWS;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_IMPORT_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_PET_BREED_ID;
+import static com.example.android.pets.data.PetDbHelper.FTS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.IMPORTS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.PETS_VIEW_NAME;
+import static com.example.android.pets.data.PetDbHelper.STATS_BREED_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.STATS_GENDER_TABLE_NAME;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_APPLY_BATCH;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_BULK_INSERT;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_DELETE;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_INSERT;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_NOTIFY;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_QUERY;
+import static com.example.android.pets.data.PetProviderMetrics.OPERATION_UPDATE;
+import static com.example.android.pets.data.PetsContract.EXTRA_CHANGE_SEQUENCE;
+import static com.example.android.pets.data.PetsContract.EXTRA_IMPORTED_ROWS;
+import static com.example.android.pets.data.PetsContract.METHOD_ACK_CHANGES;
+import static com.example.android.pets.data.PetsContract.METHOD_FINISH_IMPORT;
+import static com.example.android.pets.data.PetsContract.METHOD_GET_IMPORT_PROGRESS;
+import static com.example.android.pets.data.PetsContract.METHOD_GET_METRICS;
+import static com.example.android.pets.data.PetsContract.METHOD_REGISTER_CHANGE_CONSUMER;
+import static com.example.android.pets.data.PetsContract.METHOD_RESET_METRICS;
+import static com.example.android.pets.data.PetsContract.METHOD_UNREGISTER_CHANGE_CONSUMER;
+import static com.example.android.pets.data.PetsContract.MIME_TYPE_CSV;
+import static com.example.android.pets.data.PetsContract.MIME_TYPE_NDJSON;
 import static com.example.android.pets.data.PetsContract.PATH_PETS;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_AFTER_ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_AFTER_KEY;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_GENDER;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_IMPORT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_IMPORT_ROWS;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_MAX_WEIGHT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_MIN_WEIGHT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_NAME_PREFIX;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_SINCE;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_SORT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_UNTIL_ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_UNTIL_KEY;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static com.example.android.pets.data.PetsContract.SORT_NEWEST;
+import static com.example.android.pets.data.PetsContract.SORT_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry;
+import static com.example.android.pets.data.PetsContract.PetChangeEntry.COLUMN_SEQUENCE;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
 import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
 import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_ITEM_TYPE;
 import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_LIST_TYPE;
@@ -22,6 +96,12 @@ import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
 import static com.example.android.pets.data.PetsContract.PetEntry._ID;
 import static com.example.android.pets.data.PetsContract.PetEntry;
 import static com.example.android.pets.data.PetsContract.PetEntry.isValidGender;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_AVERAGE_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_PET_COUNT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_STAT_KEY;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_STAT_TYPE;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
 
 
 /**
@@ -36,12 +116,90 @@ public class PetProvider extends ContentProvider {
 
     private PetDbHelper mDbHelper;
 
+    /** Number of pets kept in {@link #mPetCache} */
+    private static final int PET_CACHE_SIZE = 200;
+
+    /** Recently read single pets, so opening the same pet again doesn't go to the database */
+    private final PetCache mPetCache = new PetCache(PET_CACHE_SIZE);
+
+    /** Counts and times the operations, read through {@link #call(String, String, Bundle)} */
+    private final PetProviderMetrics mMetrics = new PetProviderMetrics(
+            new int[] { PETS, PET_ID, PET_SEARCH, PET_STATS, PET_EXPORT, PET_PHOTO, PET_CHANGES },
+            new String[] { "pets", "pet_id", "pet_search", "pet_stats", "pet_export", "pet_photo",
+                    "pet_changes" });
+
+    /** Columns and number of pets read to warm up the database, as in the first catalog page */
+    private static final String[] WARM_UP_PROJECTION = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED};
+    private static final int WARM_UP_ROWS = 50;
+
+    /** Writes the exports of the pets table into their pipes */
+    private PetExportWriter mExportWriter;
+
+    /** Keeps the photos of the pets */
+    private PetPhotoStore mPhotoStore;
+
     /** URI matcher code for the content URI for the pets table */
     public static final int PETS = 100;
 
     /** URI matcher code for the content URI for a single pet in the pets table */
     public static final int PET_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search of the pets table */
+    public static final int PET_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the shelter statistics */
+    public static final int PET_STATS = 103;
+
+    /** URI matcher code for the content URI for an export of the pets table */
+    public static final int PET_EXPORT = 104;
+
+    /** URI matcher code for the content URI for the photo of a single pet */
+    public static final int PET_PHOTO = 105;
+
+    /** URI matcher code for the content URI for the change log of the pets */
+    public static final int PET_CHANGES = 106;
+
+    /**
+     * Changes of up to this many rows are notified row by row, so that listeners of a single pet
+     * only hear about their own pet. Bigger changes are notified once for the whole table.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 100;
+
+    /** How long a batch waits for other threads when it yields its transaction, in milliseconds */
+    private static final long BATCH_YIELD_SLEEP_MS = 0;
+
+    /**
+     * URIs that changed during the batch running on the current thread. While a batch is running
+     * notifications are collected here and sent once per URI when the batch commits.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    /** Compiled once per batch by {@link #bulkInsert(Uri, ContentValues[])} and reused for every row */
+    private static final String SQL_INSERT_PET = "INSERT INTO " + TABLE_NAME + " ("
+            + COLUMN_PET_NAME + ", " + COLUMN_PET_BREED_ID + ", "
+            + COLUMN_PET_GENDER + ", " + COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    /** Single row update of all pet columns, the last parameter is the _id */
+    private static final String SQL_UPDATE_PET = "UPDATE " + TABLE_NAME + " SET "
+            + COLUMN_PET_NAME + " = ?, " + COLUMN_PET_BREED_ID + " = ?, "
+            + COLUMN_PET_GENDER + " = ?, " + COLUMN_PET_WEIGHT + " = ? WHERE " + _ID + " = ?";
+
+    /** Single row delete, the parameter is the _id */
+    private static final String SQL_DELETE_PET = "DELETE FROM " + TABLE_NAME + " WHERE " + _ID + " = ?";
+
+    /**
+     * Guards the compiled single row statements below. A statement holds its bindings, so only one
+     * thread may bind and run it at a time. Writes are serialized by SQLite anyway, so this lock
+     * costs nothing extra.
+     */
+    private final Object mStatementLock = new Object();
+
+    /** Compiled {@link #SQL_UPDATE_PET}, created on first use */
+    private SQLiteStatement mUpdatePetStatement;
+
+    /** Compiled {@link #SQL_DELETE_PET}, created on first use */
+    private SQLiteStatement mDeletePetStatement;
+
     /** URI matcher object to match a context URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
      * It's common to use NO_MATCH as the input for this case.
@@ -67,21 +225,84 @@ public class PetProvider extends ContentProvider {
         // For example, "content://com.example.android.pets/pets/3" matches, but
         // "content://com.example.android.pets/pets" (without a number at the end) doesn't match.
         sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY, PetsContract.PATH_PETS + "/#", PET_ID);
+
+        // The content URI of the form "content://com.example.android.pets/pets/search/*" will map
+        // to the integer code {@link #PET_SEARCH}. The last path segment is the text to search for
+        // in the pet names and breeds.
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_SEARCH + "/*", PET_SEARCH);
+
+        // The content URI of the form "content://com.example.android.pets/pets/stats" will map
+        // to the integer code {@link #PET_STATS}. It gives read only access to the statistics.
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_STATS, PET_STATS);
+
+        // The content URI of the form "content://com.example.android.pets/pets/export" will map
+        // to the integer code {@link #PET_EXPORT}. It is opened as a file rather than queried.
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_EXPORT, PET_EXPORT);
+
+        // The content URI of the form "content://com.example.android.pets/pets/#/photo" will map
+        // to the integer code {@link #PET_PHOTO}. It is opened as a file to read or write the photo.
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/#/" + PetsContract.PATH_PHOTO, PET_PHOTO);
+
+        // The content URI of the form "content://com.example.android.pets/pets/changes" will map
+        // to the integer code {@link #PET_CHANGES}. It gives read only access to the change log.
+        sUriMatcher.addURI(PetsContract.CONTENT_AUTHORITY,
+                PetsContract.PATH_PETS + "/" + PetsContract.PATH_CHANGES, PET_CHANGES);
     }
 
     @Override
     public boolean onCreate() {
 
+        StartupTiming.mark("Pet provider created");
         mDbHelper = new PetDbHelper(getContext());
+        mExportWriter = new PetExportWriter(mDbHelper, mMetrics, PET_EXPORT);
+        mPhotoStore = new PetPhotoStore(getContext(), mDbHelper);
+
+        // Providers are created before the application and its first activity, so this is the
+        // earliest point to warm up the database off the main thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                warmUpDatabase();
+            }
+        }, "PetDbWarmUp").start();
         return true;
     }
 
+    /**
+     * Open the database, creating or upgrading it if needed, and read the first page of the
+     * catalog so its pages are in the cache. The first loader of the catalog then finds an open
+     * database, or waits for this one to finish opening it rather than opening it again.
+     */
+    private void warmUpDatabase() {
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+            StartupTiming.mark("Database opened");
+            Cursor cursor = database.query(PETS_VIEW_NAME, WARM_UP_PROJECTION, null, null,
+                    null, null, _ID + " ASC", String.valueOf(WARM_UP_ROWS));
+            try {
+                cursor.moveToLast();
+            } finally {
+                cursor.close();
+            }
+            StartupTiming.mark("Database warmed up");
+        } catch (SQLException e) {
+            // The first query opens the database again and reports the error
+            Log.w(LOG_TAG, "Database warm-up failed", e);
+        }
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startNanos = System.nanoTime();
+
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -93,9 +314,10 @@ public class PetProvider extends ContentProvider {
         switch (match) {
             case PETS:
                 // For the PETS code, query the pets table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the pets table.
-                cursor = database.query(TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                // projection, selection, selection arguments, and sort order, narrowed down by
+                // the filter and paging parameters of the URI. The cursor could contain
+                // multiple rows of the pets table.
+                cursor = queryPets(database, uri, projection, selection, selectionArgs, sortOrder);
                 break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -109,27 +331,381 @@ public class PetProvider extends ContentProvider {
                 selection = _ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
-                // This will perform a query on the pets table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                // This will return the pet from the cache if it was read recently, or perform a
+                // query on the pets table where the _id equals 3 to return a Cursor containing
+                // that row of the table.
+                cursor = queryPet(database, ContentUris.parseId(uri), projection, selection,
+                        selectionArgs, sortOrder);
+                break;
+            case PET_SEARCH:
+                cursor = searchPets(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_STATS:
+                cursor = queryStats(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_CHANGES:
+                cursor = queryChanges(database, uri, projection, selection, selectionArgs, sortOrder);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-        cursor.setNotificationUri(getContext().getContentResolver(),uri);
+        // A single pet only listens for changes of its own row, lists listen for changes of any pet
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == PET_ID ? uri : CONTENT_URI);
+        mMetrics.record(OPERATION_QUERY, match, startNanos, 0);
+        return cursor;
+    }
+
+    /**
+     * Query a single pet by its ID, through {@link #mPetCache}. On a cache miss the whole row is
+     * read and cached. Projections asking for anything but the pet columns skip the cache.
+     */
+    private Cursor queryPet(SQLiteDatabase database, long id, String[] projection,
+                            String selection, String[] selectionArgs, String sortOrder) {
+        if (projection == null) {
+            projection = PetCache.COLUMNS;
+        }
+        int[] columns = PetCache.findColumns(projection);
+        if (columns == null) {
+            return database.query(PETS_VIEW_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder);
+        }
+
+        // Inside a batch this thread sees its own changes before they are committed. They must
+        // not reach the cache, and the cache may not have them yet, so read the row directly.
+        if (database.inTransaction()) {
+            return database.query(PETS_VIEW_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder);
+        }
+
+        Object[] pet = mPetCache.get(id);
+        if (pet == null) {
+            int generation = mPetCache.getGeneration();
+            Cursor cursor = database.query(PETS_VIEW_NAME, PetCache.COLUMNS, selection, selectionArgs,
+                    null, null, null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    // There is no such pet, return an empty cursor
+                    return new MatrixCursor(projection, 0);
+                }
+                pet = PetCache.readRow(cursor);
+            } finally {
+                cursor.close();
+            }
+            mPetCache.put(id, pet, generation);
+        }
+
+        // Copy the requested columns of the pet into a one row cursor
+        Object[] row = new Object[projection.length];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = pet[columns[i]];
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        cursor.addRow(row);
         return cursor;
     }
 
+    /**
+     * Search the pet names and breeds through the full-text search table. Every word of the
+     * search text is matched as a prefix. Unless a sort order is given, pets whose name matches
+     * come before pets that only match by breed, and each group is sorted by name.
+     */
+    private Cursor searchPets(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        String[] words = uri.getLastPathSegment().split("\\s+");
+
+        // Build the MATCH expressions, one for both columns and one for the name only
+        StringBuilder match = new StringBuilder();
+        StringBuilder nameMatch = new StringBuilder();
+        for (String word : words) {
+            // Drop everything that would be read as FTS query syntax
+            String term = word.replaceAll("[^\\p{L}\\p{N}]", "");
+            if (term.isEmpty()) {
+                continue;
+            }
+            match.append(term).append("* ");
+            nameMatch.append(COLUMN_PET_NAME).append(':').append(term).append("* ");
+        }
+        if (match.length() == 0) {
+            // Nothing left to search for, so nothing matches
+            return database.query(PETS_VIEW_NAME, projection, "0", null, null, null, null);
+        }
+
+        String matchingIds = "SELECT docid FROM " + FTS_TABLE_NAME + " WHERE " + FTS_TABLE_NAME + " MATCH ?";
+        selection = DatabaseUtils.concatenateWhere(_ID + " IN (" + matchingIds + ")", selection);
+        selectionArgs = DatabaseUtils.appendSelectionArgs(new String[] { match.toString().trim() },
+                selectionArgs);
+        if (sortOrder == null) {
+            sortOrder = _ID + " IN (" + matchingIds.replace("?",
+                    DatabaseUtils.sqlEscapeString(nameMatch.toString().trim())) + ") DESC, "
+                    + COLUMN_PET_NAME + " COLLATE NOCASE";
+        }
+
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            limit = String.valueOf(parseNumberParameter(uri, limit));
+        }
+        return database.query(PETS_VIEW_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Query the shelter statistics from the summary tables kept by the triggers of
+     * {@link PetDbHelper}. The cost doesn't depend on the number of pets: the totals add up the
+     * three gender rows, and the top breeds are read in order from the index on their count.
+     */
+    private Cursor queryStats(SQLiteDatabase database, Uri uri, String[] projection,
+                              String selection, String[] selectionArgs, String sortOrder) {
+        long topBreeds = PetStatsEntry.DEFAULT_TOP_BREEDS;
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            topBreeds = parseNumberParameter(uri, limit);
+        }
+
+        String averageWeight = "CASE WHEN " + COLUMN_PET_COUNT + " > 0 THEN CAST(" + COLUMN_TOTAL_WEIGHT
+                + " AS REAL) / " + COLUMN_PET_COUNT + " END";
+        String stats = "SELECT " + DatabaseUtils.sqlEscapeString(PetStatsEntry.TYPE_ALL) + " AS " + COLUMN_STAT_TYPE + ", "
+                + "NULL AS " + COLUMN_STAT_KEY + ", "
+                + "SUM(" + COLUMN_PET_COUNT + ") AS " + COLUMN_PET_COUNT + ", "
+                + "SUM(" + COLUMN_TOTAL_WEIGHT + ") AS " + COLUMN_TOTAL_WEIGHT + ", "
+                + "CASE WHEN SUM(" + COLUMN_PET_COUNT + ") > 0 THEN CAST(SUM(" + COLUMN_TOTAL_WEIGHT
+                + ") AS REAL) / SUM(" + COLUMN_PET_COUNT + ") END AS " + COLUMN_AVERAGE_WEIGHT
+                + " FROM " + STATS_GENDER_TABLE_NAME
+                + " UNION ALL SELECT " + DatabaseUtils.sqlEscapeString(PetStatsEntry.TYPE_GENDER) + ", "
+                + COLUMN_PET_GENDER + ", " + COLUMN_PET_COUNT + ", " + COLUMN_TOTAL_WEIGHT + ", " + averageWeight
+                + " FROM " + STATS_GENDER_TABLE_NAME
+                + " UNION ALL SELECT * FROM (SELECT " + DatabaseUtils.sqlEscapeString(PetStatsEntry.TYPE_BREED) + ", "
+                + "IFNULL(b." + COLUMN_BREED_NAME + ", ''), s." + COLUMN_PET_COUNT + ", NULL, NULL"
+                + " FROM " + STATS_BREED_TABLE_NAME + " s LEFT JOIN " + BREEDS_TABLE_NAME
+                + " b ON b." + _ID + " = s." + COLUMN_PET_BREED_ID
+                + " ORDER BY s." + COLUMN_PET_COUNT + " DESC LIMIT " + topBreeds + ")";
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables("(" + stats + ")");
+        return builder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Query the pets, filtered, sorted and paged by the parameters of the URI.
+     *
+     * Every combination of parameters gives the same SQL with different arguments, so the
+     * statements are prepared once and found in the statement cache of the connection. The pets
+     * are always read in order from the index of the sort order, so a page stops after its last
+     * pet and the matching pets are never sorted as a whole: the _id order of the table, or the
+     * name, weight, gender, gender and name, or gender and weight index of {@link PetDbHelper}.
+     * A gender is looked up as the start of the gender indexes. The weight range and name prefix
+     * are ranges of the index when the pets are sorted by them, and otherwise only checked on
+     * the pets read in order, written so that SQLite doesn't pick their index and sort instead.
+     *
+     * Pages are found by their position in the sort order, the sort key and _id of a pet, rather
+     * than by an OFFSET, so every page costs the same no matter how deep into the table it is.
+     */
+    private Cursor queryPets(SQLiteDatabase database, Uri uri, String[] projection,
+                             String selection, String[] selectionArgs, String sortOrder) {
+        List<String> args = new ArrayList<>();
+        String sql = buildPetsQuery(uri, projection, selection, selectionArgs, sortOrder, args);
+        return database.rawQuery(sql, args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * Returns the SQL of {@link #queryPets} for the given URI, and adds its arguments to args.
+     * The query plan tests check the SQL of every filter and sort order through it.
+     */
+    static String buildPetsQuery(Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder, List<String> queryArgs) {
+        List<String> args = new ArrayList<>();
+
+        // The sort key is null when the pets are sorted by _id only
+        String sort = uri.getQueryParameter(QUERY_PARAMETER_SORT);
+        String sortKey = null;
+        boolean newestFirst = false;
+        if (SORT_NAME.equals(sort)) {
+            sortKey = COLUMN_PET_NAME + " COLLATE NOCASE";
+        } else if (SORT_WEIGHT.equals(sort)) {
+            sortKey = COLUMN_PET_WEIGHT;
+        } else if (SORT_NEWEST.equals(sort)) {
+            newestFirst = true;
+        } else if (sort != null) {
+            throw new IllegalArgumentException("Invalid sort order " + sort + " in " + uri);
+        }
+
+        String gender = uri.getQueryParameter(QUERY_PARAMETER_GENDER);
+        if (gender != null) {
+            long value = parseNumberParameter(uri, gender);
+            if (value > Integer.MAX_VALUE || !isValidGender((int) value)) {
+                throw new IllegalArgumentException("Invalid gender " + gender + " in " + uri);
+            }
+            selection = DatabaseUtils.concatenateWhere(selection, COLUMN_PET_GENDER + "=?");
+            args.add(String.valueOf(value));
+        }
+
+        // A unary + keeps SQLite from using an index for the weight, but also drops the integer
+        // affinity of the column, so the argument is cast to compare it as a number
+        boolean sortedByWeight = SORT_WEIGHT.equals(sort);
+        String weight = sortedByWeight ? COLUMN_PET_WEIGHT : "+" + COLUMN_PET_WEIGHT;
+        String weightArg = sortedByWeight ? "?" : "CAST(? AS INTEGER)";
+        String minWeight = uri.getQueryParameter(QUERY_PARAMETER_MIN_WEIGHT);
+        if (minWeight != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, weight + ">=" + weightArg);
+            args.add(String.valueOf(parseNumberParameter(uri, minWeight)));
+        }
+        String maxWeight = uri.getQueryParameter(QUERY_PARAMETER_MAX_WEIGHT);
+        if (maxWeight != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, weight + "<=" + weightArg);
+            args.add(String.valueOf(parseNumberParameter(uri, maxWeight)));
+        }
+        String namePrefix = uri.getQueryParameter(QUERY_PARAMETER_NAME_PREFIX);
+        if (!TextUtils.isEmpty(namePrefix)) {
+            selection = DatabaseUtils.concatenateWhere(selection,
+                    selectNamePrefix(namePrefix, SORT_NAME.equals(sort), args));
+        }
+
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        String afterId = uri.getQueryParameter(QUERY_PARAMETER_AFTER_ID);
+        String untilId = uri.getQueryParameter(QUERY_PARAMETER_UNTIL_ID);
+        if (afterId != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, selectPageBound(uri, sortKey,
+                    newestFirst, true, afterId, uri.getQueryParameter(QUERY_PARAMETER_AFTER_KEY), args));
+        }
+        if (untilId != null) {
+            selection = DatabaseUtils.concatenateWhere(selection, selectPageBound(uri, sortKey,
+                    newestFirst, false, untilId, uri.getQueryParameter(QUERY_PARAMETER_UNTIL_KEY), args));
+        }
+        if (limit != null) {
+            limit = String.valueOf(parseNumberParameter(uri, limit));
+        }
+
+        // Ties of the sort key are broken by the _id, which every index ends with, so the
+        // order is the order of the index and the pages don't overlap
+        if (sortKey != null) {
+            sortOrder = sortKey + " ASC, " + _ID + " ASC";
+        } else if (newestFirst) {
+            sortOrder = _ID + " DESC";
+        } else if (limit != null || afterId != null || untilId != null) {
+            sortOrder = _ID + " ASC";
+        }
+
+        // The arguments of the given selection come first, like the selection itself
+        if (selectionArgs != null) {
+            queryArgs.addAll(Arrays.asList(selectionArgs));
+        }
+        queryArgs.addAll(args);
+        return SQLiteQueryBuilder.buildQueryString(false, PETS_VIEW_NAME, projection, selection,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Returns the selection of the pets whose name starts with the prefix, ignoring the case of
+     * the letters A to Z like the name indexes do, and adds its arguments. When the pets are
+     * sorted by name, the names are first narrowed down to a range of a name index, which may
+     * hold a few names too many. The names are then compared exactly.
+     */
+    private static String selectNamePrefix(String prefix, boolean sortedByName, List<String> args) {
+        // Lower case sorts after upper case, so the range ends right after the lower case prefix
+        StringBuilder lowerCase = new StringBuilder(prefix.length());
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            lowerCase.append(c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c);
+        }
+        String from = lowerCase.toString();
+        char last = from.charAt(from.length() - 1);
+
+        StringBuilder selection = new StringBuilder();
+        if (sortedByName) {
+            selection.append(COLUMN_PET_NAME).append(" COLLATE NOCASE >=? AND ");
+            args.add(from);
+            if (last != Character.MAX_VALUE && !Character.isHighSurrogate(last)
+                    && !Character.isLowSurrogate(last)) {
+                selection.append(COLUMN_PET_NAME).append(" COLLATE NOCASE <? AND ");
+                args.add(from.substring(0, from.length() - 1) + (char) (last + 1));
+            }
+        }
+        selection.append("substr(").append(COLUMN_PET_NAME).append(", 1, ")
+                .append(from.codePointCount(0, from.length())).append(") = ? COLLATE NOCASE");
+        args.add(from);
+        return selection.toString();
+    }
+
+    /**
+     * Returns the selection of the pets after, or up to and including, the given pet in the sort
+     * order, and adds its arguments. When sorting by a key, the key of the pet is needed too.
+     * The key is compared on its own first, so the bound is a range of the index of the key.
+     */
+    private static String selectPageBound(Uri uri, String sortKey, boolean newestFirst,
+                                          boolean after, String id, String key, List<String> args) {
+        String idArg = String.valueOf(parseNumberParameter(uri, id));
+        if (sortKey == null) {
+            args.add(idArg);
+            if (newestFirst) {
+                return _ID + (after ? "<?" : ">=?");
+            }
+            return _ID + (after ? ">?" : "<=?");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Paging sorted by a key requires the key in " + uri);
+        }
+        args.add(key);
+        args.add(key);
+        args.add(idArg);
+        if (after) {
+            return sortKey + ">=? AND (" + sortKey + ">? OR " + _ID + ">?)";
+        }
+        return sortKey + "<=? AND (" + sortKey + "<? OR " + _ID + "<=?)";
+    }
+
+    /**
+     * Query the changes of the pets after the sequence number given by
+     * {@link PetsContract#QUERY_PARAMETER_SINCE}, oldest first unless another order is given.
+     * The changes are found through the sequence number, which is the key of the change log, so
+     * a pull costs the same however long the log is.
+     */
+    private Cursor queryChanges(SQLiteDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        String since = uri.getQueryParameter(QUERY_PARAMETER_SINCE);
+        if (since != null) {
+            selection = DatabaseUtils.concatenateWhere(COLUMN_SEQUENCE + ">?", selection);
+            selectionArgs = DatabaseUtils.appendSelectionArgs(
+                    new String[] { String.valueOf(parseNumberParameter(uri, since)) }, selectionArgs);
+        }
+        if (sortOrder == null) {
+            sortOrder = COLUMN_SEQUENCE + " ASC";
+        }
+        String limit = uri.getQueryParameter(QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            limit = String.valueOf(parseNumberParameter(uri, limit));
+        }
+        return database.query(CHANGES_TABLE_NAME, projection, selection, selectionArgs,
+                null, null, sortOrder, limit);
+    }
+
+    /**
+     * Parse the value of a numeric query parameter. Throws an {@link IllegalArgumentException}
+     * if the value is not a number of zero or more.
+     */
+    private static long parseNumberParameter(Uri uri, String value) {
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through to the exception below
+        }
+        throw new IllegalArgumentException("Invalid query parameter " + value + " in " + uri);
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                return insertPet(uri, contentValues);
+                Uri newUri = insertPet(uri, contentValues);
+                mMetrics.record(OPERATION_INSERT, match, startNanos, 1);
+                return newUri;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
@@ -141,6 +717,42 @@ public class PetProvider extends ContentProvider {
      */
     private Uri insertPet(Uri uri, ContentValues values) {
 
+        // Make sure the values describe a valid pet before touching the database
+        validatePet(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // Insert the new pet with the given values, adding its breed first if it is a new one
+        long id;
+        database.beginTransaction();
+        BreedLookup breeds = new BreedLookup(database);
+        try {
+            id = database.insert(TABLE_NAME, null, breeds.toPetRow(values));
+            database.setTransactionSuccessful();
+        } finally {
+            breeds.close();
+            database.endTransaction();
+        }
+        if (id != -1) {
+            mDbHelper.onRowsWritten(1);
+
+            // notify the listeners of the new row and of the whole table:
+            notifyChange(ContentUris.withAppendedId(CONTENT_URI, id));
+        }
+
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended to the end of it
+        Log.v(LOG_TAG,"ID is: " + id);
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Check that the given content values describe a valid new pet. Throws an
+     * {@link IllegalArgumentException} if any of the required values is missing or invalid.
+     * {@link PetImporter} checks the rows it reads with the same rules.
+     */
+    static void validatePet(ContentValues values) {
+
         // Check that the name is not null
         String name = values.getAsString(COLUMN_PET_NAME);
         if (name == null) {
@@ -160,19 +772,95 @@ public class PetProvider extends ContentProvider {
         }
 
         //No need to check breed value, any value is valid even null
+    }
+
+    /**
+     * Insert a batch of pets with the given content values. The whole batch is validated first,
+     * then written in a single transaction with one compiled INSERT statement that is reused for
+     * every row. Listeners are notified only once, after the batch is committed.
+     * Return the number of rows that were inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match != PETS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Validate every row up front, so a bad row rejects the batch before anything is written
+        for (ContentValues value : values) {
+            validatePet(value);
+        }
+
+        // The progress of an import is committed along with its pets
+        String importName = uri.getQueryParameter(QUERY_PARAMETER_IMPORT);
+        ContentValues importProgress = null;
+        if (importName != null) {
+            String importRows = uri.getQueryParameter(QUERY_PARAMETER_IMPORT_ROWS);
+            if (TextUtils.isEmpty(importName) || importRows == null) {
+                throw new IllegalArgumentException("An import requires its name and rows in " + uri);
+            }
+            importProgress = new ContentValues();
+            importProgress.put(COLUMN_IMPORT_NAME, importName);
+            importProgress.put(COLUMN_IMPORTED_ROWS, parseNumberParameter(uri, importRows));
+        }
 
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        // Insert the new pet with the given values
-        long id = database.insert(TABLE_NAME, null, values);
+        SQLiteStatement statement = database.compileStatement(SQL_INSERT_PET);
 
-        // notify all listeners of changes:
-        getContext().getContentResolver().notifyChange(CONTENT_URI, null);
+        int insertedRows = 0;
+        List<Long> insertedIds = values.length <= MAX_ROW_NOTIFICATIONS
+                ? new ArrayList<Long>(values.length) : null;
+        database.beginTransaction();
+        BreedLookup breeds = new BreedLookup(database);
+        try {
+            for (ContentValues value : values) {
+                bindPet(statement, value, breeds.find(value.getAsString(COLUMN_PET_BREED)));
+                long id = statement.executeInsert();
+                if (id != -1) {
+                    insertedRows++;
+                    if (insertedIds != null) {
+                        insertedIds.add(id);
+                    }
+                }
+            }
+            if (importProgress != null) {
+                database.insertWithOnConflict(IMPORTS_TABLE_NAME, null, importProgress,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            breeds.close();
+            statement.close();
+            database.endTransaction();
+        }
+        Log.v(LOG_TAG, "Bulk inserted number of rows : " + insertedRows);
+        mDbHelper.onRowsWritten(insertedRows);
 
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        Log.v(LOG_TAG,"ID is: " + id);
-        return ContentUris.withAppendedId(uri, id);
+        // notify the listeners of the new rows once the whole batch is written:
+        if (insertedRows != 0) {
+            notifyRowsChanged(insertedIds);
+        }
+        mMetrics.record(OPERATION_BULK_INSERT, match, startNanos, insertedRows);
+        return insertedRows;
+    }
+
+    /**
+     * Bind the values of an already validated pet, with the _ID of its breed, to the first four
+     * parameters of the {@link #SQL_INSERT_PET} or {@link #SQL_UPDATE_PET} statement.
+     */
+    private static void bindPet(SQLiteStatement statement, ContentValues values, Long breedId) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(COLUMN_PET_NAME));
+        if (breedId == null) {
+            statement.bindNull(2);
+        } else {
+            statement.bindLong(2, breedId);
+        }
+        statement.bindLong(3, values.getAsInteger(COLUMN_PET_GENDER));
+        statement.bindLong(4, values.getAsInteger(COLUMN_PET_WEIGHT));
     }
 
     /**
@@ -180,21 +868,23 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        int updatedRows;
         switch (match) {
             case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                updatedRows = updatePet(uri, contentValues, selection, selectionArgs);
+                break;
             case PET_ID:
-                // For the PET_ID code, extract out the ID from the URI,
-                // so we know which row to update. Selection will be "_id=?" and selection
-                // arguments will be a String array containing the actual ID.
-                selection = _ID + "=?";
-                selectionArgs = new String[] {String.valueOf(ContentUris.parseId(uri))};
-                return updatePet(uri, contentValues, selection, selectionArgs);
+                // For the PET_ID code, updatePet() extracts out the ID from the URI,
+                // so we know which row to update.
+                updatedRows = updatePet(uri, contentValues, null, null);
+                break;
             default:
                 throw new IllegalArgumentException("Insertion is not supported for " + uri);
         }
-
+        mMetrics.record(OPERATION_UPDATE, match, startNanos, updatedRows);
+        return updatedRows;
     }
 
     /**
@@ -240,13 +930,44 @@ public class PetProvider extends ContentProvider {
 
         //Get a database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
-        int rowNumber = database.update(TABLE_NAME, values, selection, selectionArgs);
+        boolean singleRow = sUriMatcher.match(uri) == PET_ID;
+        List<Long> changedIds = null;
+        int rowNumber;
+        if (singleRow) {
+            rowNumber = updateSinglePet(database, ContentUris.parseId(uri), values);
+        } else {
+            database.beginTransaction();
+            BreedLookup breeds = new BreedLookup(database);
+            try {
+                // Find out which rows are about to change, for the notifications
+                changedIds = findChangedIds(database, selection, selectionArgs);
+                rowNumber = database.update(TABLE_NAME, breeds.toPetRow(values),
+                        selectPetRows(selection), selectionArgs);
+                database.setTransactionSuccessful();
+            } finally {
+                breeds.close();
+                database.endTransaction();
+            }
+        }
         Log.v(LOG_TAG, "Updated number of rows : " + rowNumber);
+        mDbHelper.onRowsWritten(rowNumber);
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        // The changes are committed, drop the old values from the cache
         if (rowNumber != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (singleRow) {
+                mPetCache.invalidate(ContentUris.parseId(uri));
+            } else {
+                invalidateCachedPets(changedIds);
+            }
+        }
+
+        // If 1 or more rows were updated, then notify the listeners of those rows
+        if (rowNumber != 0) {
+            if (singleRow) {
+                notifyChange(uri);
+            } else {
+                notifyRowsChanged(changedIds);
+            }
         }
         //return the number of rows updated
         return rowNumber;
@@ -257,6 +978,8 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
@@ -265,24 +988,549 @@ public class PetProvider extends ContentProvider {
         int deletedRows;
         switch (match) {
             case PETS:
-                // Delete all rows that match the selection and selection args
-                deletedRows = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete all rows that match the selection and selection args, after finding
+                // out which rows they are for the notifications
+                List<Long> deletedIds;
+                database.beginTransaction();
+                try {
+                    deletedIds = findChangedIds(database, selection, selectionArgs);
+                    deletedRows = database.delete(PetEntry.TABLE_NAME, selectPetRows(selection), selectionArgs);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                mDbHelper.onRowsWritten(deletedRows);
+                if (deletedRows != 0) {
+                    invalidateCachedPets(deletedIds);
+                    notifyRowsChanged(deletedIds);
+                    mPhotoStore.scheduleCleanUp();
+                }
                 break;
             case PET_ID:
-                // Delete a single row given by the ID in the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                deletedRows = database.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete a single row given by the ID in the URI, through the compiled statement
+                // The transaction is started before taking the statement lock, like for updates, so a
+                // thread waiting for the database never holds the lock
+                long id = ContentUris.parseId(uri);
+                database.beginTransaction();
+                try {
+                    synchronized (mStatementLock) {
+                        if (mDeletePetStatement == null) {
+                            mDeletePetStatement = database.compileStatement(SQL_DELETE_PET);
+                        }
+                        mDeletePetStatement.bindLong(1, id);
+                        deletedRows = mDeletePetStatement.executeUpdateDelete();
+                    }
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                mDbHelper.onRowsWritten(deletedRows);
+                if (deletedRows != 0) {
+                    mPetCache.invalidate(id);
+                    notifyChange(uri);
+                    mPhotoStore.scheduleCleanUp();
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
-        if (deletedRows != 0) {
-            getContext().getContentResolver().notifyChange(CONTENT_URI, null);
-        }
+        mMetrics.record(OPERATION_DELETE, match, startNanos, deletedRows);
         return deletedRows;
     }
 
+    /**
+     * Update the pet with the given ID. When the values hold exactly the four pet columns, which
+     * is how the editor saves a pet, the compiled {@link #SQL_UPDATE_PET} statement is used with the
+     * ID bound as a number. Other values go through a regular update.
+     */
+    private int updateSinglePet(SQLiteDatabase database, long id, ContentValues values) {
+        // The breed lookup and the update are one transaction, which also commits only once
+        database.beginTransaction();
+        BreedLookup breeds = new BreedLookup(database);
+        try {
+            int rowNumber;
+            if (!hasAllPetColumns(values)) {
+                rowNumber = database.update(TABLE_NAME, breeds.toPetRow(values), _ID + "=?",
+                        new String[] { String.valueOf(id) });
+            } else {
+                Long breedId = breeds.find(values.getAsString(COLUMN_PET_BREED));
+                synchronized (mStatementLock) {
+                    if (mUpdatePetStatement == null) {
+                        mUpdatePetStatement = database.compileStatement(SQL_UPDATE_PET);
+                    }
+                    bindPet(mUpdatePetStatement, values, breedId);
+                    mUpdatePetStatement.bindLong(5, id);
+                    rowNumber = mUpdatePetStatement.executeUpdateDelete();
+                }
+            }
+            database.setTransactionSuccessful();
+            return rowNumber;
+        } finally {
+            breeds.close();
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Returns the WHERE clause on the pets table for a selection on the pets as the provider
+     * shows them. The selection can use the breed column, which only the view has, so it picks
+     * the rows through the view.
+     */
+    private static String selectPetRows(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return selection;
+        }
+        return _ID + " IN (SELECT " + _ID + " FROM " + PETS_VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    /**
+     * Returns true if the values hold the four pet columns and nothing else, with a value for
+     * every column that can't be null.
+     */
+    private static boolean hasAllPetColumns(ContentValues values) {
+        return values.size() == 4
+                && values.getAsString(COLUMN_PET_NAME) != null
+                && values.containsKey(COLUMN_PET_BREED)
+                && values.getAsInteger(COLUMN_PET_GENDER) != null
+                && values.getAsInteger(COLUMN_PET_WEIGHT) != null;
+    }
+
+    /**
+     * Find the IDs of the rows matching the selection, so the listeners of just those rows can be
+     * notified. Returns null if more than {@link #MAX_ROW_NOTIFICATIONS} rows match.
+     */
+    private static List<Long> findChangedIds(SQLiteDatabase database, String selection,
+                                             String[] selectionArgs) {
+        Cursor cursor = database.query(PETS_VIEW_NAME, new String[] { _ID }, selection, selectionArgs,
+                null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            List<Long> ids = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Drop the pets with the given IDs from the cache, or all pets if the IDs are null because
+     * too many rows changed.
+     */
+    private void invalidateCachedPets(List<Long> ids) {
+        if (ids == null) {
+            mPetCache.invalidateAll();
+            return;
+        }
+        for (long id : ids) {
+            mPetCache.invalidate(id);
+        }
+    }
+
+    /**
+     * Notify the listeners of every changed row. A row URI also reaches the listeners of the whole
+     * table, but not the listeners of other rows. If the IDs are null because too many rows
+     * changed, the whole table is notified once instead, which reaches every listener.
+     */
+    private void notifyRowsChanged(List<Long> ids) {
+        if (ids == null) {
+            notifyChange(CONTENT_URI);
+            return;
+        }
+        for (long id : ids) {
+            notifyChange(ContentUris.withAppendedId(CONTENT_URI, id));
+        }
+    }
+
+    /**
+     * Apply the given operations inside a single database transaction. Change notifications are
+     * held back and sent once per affected URI after the batch is committed. Operations that
+     * allow yielding give other threads a chance to use the database during long batches.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        long startNanos = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        Set<Uri> changedUris = new HashSet<>();
+
+        final int numOperations = operations.size();
+        ContentProviderResult[] results = new ContentProviderResult[numOperations];
+
+        mPendingNotifications.set(changedUris);
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                // Yielding commits the work done so far, so let listeners know about it. They
+                // query again right away, so drop the pets cached before the commit first.
+                if (i > 0 && operation.isYieldAllowed()
+                        && database.yieldIfContendedSafely(BATCH_YIELD_SLEEP_MS)) {
+                    mPetCache.invalidateAll();
+                    sendNotifications(changedUris);
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mPendingNotifications.remove();
+            // Committed or rolled back, pets cached while the batch ran may hold values from
+            // before the commit, or values that were never committed, so drop them
+            mPetCache.invalidateAll();
+        }
+
+        // Notify all listeners once per changed URI and run the checkpoint that was put off
+        // while the transaction was open
+        sendNotifications(changedUris);
+        mDbHelper.onRowsWritten(0);
+        mMetrics.record(OPERATION_APPLY_BATCH, PETS, startNanos, numOperations);
+        return results;
+    }
+
+    /**
+     * Notify listeners that the data at the given URI has changed. If a batch is running on the
+     * current thread the notification is deferred until the batch commits.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+        } else {
+            sendNotification(getContext().getContentResolver(), uri);
+        }
+    }
+
+    /**
+     * Send a single notification and record how long it took.
+     */
+    private void sendNotification(ContentResolver resolver, Uri uri) {
+        long startNanos = System.nanoTime();
+        resolver.notifyChange(uri, null);
+        mMetrics.record(OPERATION_NOTIFY, sUriMatcher.match(uri), startNanos, 0);
+    }
+
+    /**
+     * Send the collected notifications and clear them. If too many rows changed, or the whole
+     * table was notified anyway, a single notification of the whole table is sent.
+     */
+    private void sendNotifications(Set<Uri> changedUris) {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (changedUris.size() > MAX_ROW_NOTIFICATIONS || changedUris.contains(CONTENT_URI)) {
+            sendNotification(resolver, CONTENT_URI);
+        } else {
+            for (Uri uri : changedUris) {
+                sendNotification(resolver, uri);
+            }
+        }
+        changedUris.clear();
+    }
+
+    /**
+     * Drop the cached pets when the system is running low on memory.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mPetCache.trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mPetCache.invalidateAll();
+    }
+
+    /**
+     * Returns the number of single pet lookups served from the cache.
+     */
+    public int getCacheHitCount() {
+        return mPetCache.getHitCount();
+    }
+
+    /**
+     * Returns the number of single pet lookups that had to go to the database.
+     */
+    public int getCacheMissCount() {
+        return mPetCache.getMissCount();
+    }
+
+    /**
+     * Handle the provider specific methods: {@link PetsContract#METHOD_GET_METRICS} returns the
+     * operation metrics and cache counters, {@link PetsContract#METHOD_RESET_METRICS} sets the
+     * operation metrics back to zero.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_GET_METRICS.equals(method)) {
+            Bundle metrics = mMetrics.toBundle();
+            metrics.putInt(PetProviderMetrics.KEY_CACHE_HITS, getCacheHitCount());
+            metrics.putInt(PetProviderMetrics.KEY_CACHE_MISSES, getCacheMissCount());
+            return metrics;
+        } else if (METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        } else if (METHOD_REGISTER_CHANGE_CONSUMER.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(EXTRA_CHANGE_SEQUENCE, registerChangeConsumer(requireConsumer(arg)));
+            return result;
+        } else if (METHOD_ACK_CHANGES.equals(method)) {
+            if (extras == null || !extras.containsKey(EXTRA_CHANGE_SEQUENCE)) {
+                throw new IllegalArgumentException("Acknowledging changes requires " + EXTRA_CHANGE_SEQUENCE);
+            }
+            ackChanges(requireConsumer(arg), extras.getLong(EXTRA_CHANGE_SEQUENCE));
+            return null;
+        } else if (METHOD_UNREGISTER_CHANGE_CONSUMER.equals(method)) {
+            unregisterChangeConsumer(requireConsumer(arg));
+            return null;
+        } else if (METHOD_GET_IMPORT_PROGRESS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(EXTRA_IMPORTED_ROWS, getImportProgress(requireImport(arg)));
+            return result;
+        } else if (METHOD_FINISH_IMPORT.equals(method)) {
+            mDbHelper.getWritableDatabase().delete(IMPORTS_TABLE_NAME, COLUMN_IMPORT_NAME + "=?",
+                    new String[] { requireImport(arg) });
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private static String requireImport(String name) {
+        if (TextUtils.isEmpty(name)) {
+            throw new IllegalArgumentException("The import methods require an import name");
+        }
+        return name;
+    }
+
+    /**
+     * Returns the number of rows of the import that are committed, 0 if it committed nothing.
+     */
+    private long getImportProgress(String name) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(IMPORTS_TABLE_NAME,
+                new String[] { COLUMN_IMPORTED_ROWS }, COLUMN_IMPORT_NAME + "=?",
+                new String[] { name }, null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String requireConsumer(String consumer) {
+        if (TextUtils.isEmpty(consumer)) {
+            throw new IllegalArgumentException("The change log methods require a consumer name");
+        }
+        return consumer;
+    }
+
+    /**
+     * Register a consumer of the change log, and return the sequence number it has to pull the
+     * changes since.
+     */
+    private long registerChangeConsumer(String consumer) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            // A consumer that is registered already keeps the changes it didn't acknowledge
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_CONSUMER_NAME, consumer);
+            values.put(COLUMN_ACKED_SEQUENCE, getLastChangeSequence(database));
+            database.insertWithOnConflict(CHANGE_CONSUMERS_TABLE_NAME, null, values,
+                    SQLiteDatabase.CONFLICT_IGNORE);
+            long sequence = DatabaseUtils.longForQuery(database, "SELECT " + COLUMN_ACKED_SEQUENCE
+                    + " FROM " + CHANGE_CONSUMERS_TABLE_NAME + " WHERE " + COLUMN_CONSUMER_NAME + " = ?",
+                    new String[] { consumer });
+            database.setTransactionSuccessful();
+            return sequence;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Record that the consumer has seen the changes up to the given sequence number, and remove
+     * the changes every consumer has seen from the log. A consumer can't acknowledge changes
+     * that weren't made yet, or they would be removed before it pulls them.
+     */
+    private void ackChanges(String consumer, long sequence) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            SQLiteStatement statement = database.compileStatement("UPDATE " + CHANGE_CONSUMERS_TABLE_NAME
+                    + " SET " + COLUMN_ACKED_SEQUENCE + " = MAX(" + COLUMN_ACKED_SEQUENCE + ", MIN(?, ?))"
+                    + " WHERE " + COLUMN_CONSUMER_NAME + " = ?");
+            try {
+                statement.bindLong(1, sequence);
+                statement.bindLong(2, getLastChangeSequence(database));
+                statement.bindString(3, consumer);
+                if (statement.executeUpdateDelete() == 0) {
+                    throw new IllegalArgumentException("Unknown change log consumer " + consumer);
+                }
+            } finally {
+                statement.close();
+            }
+            compactChangeLog(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Remove a consumer of the change log. The changes only it didn't acknowledge are removed.
+     */
+    private void unregisterChangeConsumer(String consumer) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            database.delete(CHANGE_CONSUMERS_TABLE_NAME, COLUMN_CONSUMER_NAME + " = ?",
+                    new String[] { consumer });
+            compactChangeLog(database);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Remove the changes every consumer has acknowledged from the log, or all of them when no
+     * consumer is registered. The changes are removed by a range of the sequence number, which
+     * is the key of the log.
+     */
+    private void compactChangeLog(SQLiteDatabase database) {
+        int deletedRows = database.delete(CHANGES_TABLE_NAME, COLUMN_SEQUENCE + " <= COALESCE("
+                + "(SELECT MIN(" + COLUMN_ACKED_SEQUENCE + ") FROM " + CHANGE_CONSUMERS_TABLE_NAME + "), ?)",
+                new String[] { String.valueOf(getLastChangeSequence(database)) });
+        mDbHelper.onRowsWritten(deletedRows);
+    }
+
+    /**
+     * Returns the sequence number of the last change logged, 0 if there was none. It is read
+     * from the AUTOINCREMENT counter, so it is known also when the log is empty.
+     */
+    private static long getLastChangeSequence(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT COALESCE(MAX(seq), 0) FROM sqlite_sequence"
+                + " WHERE name = ?", new String[] { CHANGES_TABLE_NAME });
+    }
+
+    /**
+     * Open the export of the pets table as CSV, or the photo of a pet. The returned export is the
+     * read end of a pipe that is written by a background thread, so the export starts streaming
+     * right away.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        int match = sUriMatcher.match(uri);
+        if (match == PET_PHOTO) {
+            return openPhoto(uri, mode);
+        }
+        if (match != PET_EXPORT) {
+            throw new FileNotFoundException("No file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("The export of " + uri + " is read only");
+        }
+        return openPipeHelper(uri, MIME_TYPE_CSV, null, null, mExportWriter);
+    }
+
+    /**
+     * Open the photo of a pet. Reading gives the photo file itself. Writing gives the write end
+     * of a pipe, and the written photo replaces the old one once the pipe is closed. Then the
+     * photo version of the pet is changed and the pet is notified, so the lists showing the pet
+     * load the new photo. Writing an empty photo removes the photo.
+     */
+    private ParcelFileDescriptor openPhoto(Uri uri, String mode) throws FileNotFoundException {
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+        if ("r".equals(mode)) {
+            return mPhotoStore.openPhoto(id);
+        }
+        if (!"w".equals(mode) && !"wt".equals(mode)) {
+            throw new FileNotFoundException("Can't open " + uri + " in mode " + mode);
+        }
+        if (DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), TABLE_NAME,
+                _ID + "=" + id) == 0) {
+            throw new FileNotFoundException("No pet for " + uri);
+        }
+        return mPhotoStore.openPhotoForWriting(id, new PetPhotoStore.OnPhotoWrittenListener() {
+            @Override
+            public void onPhotoWritten(long id, boolean hasPhoto) {
+                updatePhotoVersion(id, hasPhoto);
+            }
+        });
+    }
+
+    /**
+     * Give the pet a new photo version, or {@link PetEntry#NO_PHOTO} if it has no photo now. The
+     * version is the time of the change, and always bigger than the last one, so a thumbnail
+     * cached for an older photo is never shown for the new one.
+     */
+    private void updatePhotoVersion(long id, boolean hasPhoto) {
+        long startNanos = System.nanoTime();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String version = hasPhoto
+                ? "MAX(" + COLUMN_PET_PHOTO_VERSION + " + 1, " + System.currentTimeMillis() + ")"
+                : String.valueOf(PetEntry.NO_PHOTO);
+        SQLiteStatement statement = database.compileStatement("UPDATE " + TABLE_NAME
+                + " SET " + COLUMN_PET_PHOTO_VERSION + " = " + version + " WHERE " + _ID + " = ?");
+        int updatedRows;
+        try {
+            statement.bindLong(1, id);
+            updatedRows = statement.executeUpdateDelete();
+        } finally {
+            statement.close();
+        }
+        mDbHelper.onRowsWritten(updatedRows);
+
+        // The cached pet holds the photo version too
+        mPetCache.invalidate(id);
+        if (updatedRows == 0) {
+            // The pet was deleted while its photo was written
+            mPhotoStore.scheduleCleanUp();
+        } else {
+            notifyChange(ContentUris.withAppendedId(CONTENT_URI, id));
+        }
+        mMetrics.record(OPERATION_UPDATE, PET_PHOTO, startNanos, updatedRows);
+    }
+
+    /**
+     * Open the export of the pets table as CSV or as newline-delimited JSON, whichever matches
+     * the MIME type filter. CSV is picked when both match.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(Uri uri, String mimeTypeFilter, Bundle opts)
+            throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        String[] mimeTypes = getStreamTypes(uri, mimeTypeFilter);
+        if (mimeTypes == null) {
+            throw new FileNotFoundException("Can't export " + uri + " as " + mimeTypeFilter);
+        }
+        ParcelFileDescriptor pipe = openPipeHelper(uri, mimeTypes[0], opts, null, mExportWriter);
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
+    /**
+     * Returns the formats the pets table can be exported in that match the MIME type filter.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        if (sUriMatcher.match(uri) != PET_EXPORT) {
+            return null;
+        }
+        List<String> mimeTypes = new ArrayList<>(2);
+        for (String mimeType : new String[] { MIME_TYPE_CSV, MIME_TYPE_NDJSON }) {
+            if (ClipDescription.compareMimeTypes(mimeType, mimeTypeFilter)) {
+                mimeTypes.add(mimeType);
+            }
+        }
+        return mimeTypes.isEmpty() ? null : mimeTypes.toArray(new String[mimeTypes.size()]);
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -294,6 +1542,16 @@ public class PetProvider extends ContentProvider {
                 return CONTENT_LIST_TYPE;
             case PET_ID:
                 return CONTENT_ITEM_TYPE;
+            case PET_SEARCH:
+                return CONTENT_LIST_TYPE;
+            case PET_STATS:
+                return PetStatsEntry.CONTENT_LIST_TYPE;
+            case PET_EXPORT:
+                return MIME_TYPE_CSV;
+            case PET_PHOTO:
+                return PetEntry.CONTENT_PHOTO_TYPE;
+            case PET_CHANGES:
+                return PetChangeEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown Uri " + uri + " with match " + match);
         }
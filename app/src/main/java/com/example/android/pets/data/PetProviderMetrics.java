@@ -0,0 +1,185 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link PetProviderMetrics} counts the operations of {@link PetProvider} per operation and per
+ * URI match code, with the rows they affected and a histogram of how long they took.
+ *
+ * Recording an operation only updates a few atomic counters, so it is cheap enough to do on
+ * every call. The latency histogram has power of two buckets: bucket i counts the operations
+ * that took less than 2^i microseconds, and the last bucket counts everything slower.
+ */
+public class PetProviderMetrics {
+
+    /** Operations that are recorded */
+    static final int OPERATION_QUERY = 0;
+    static final int OPERATION_INSERT = 1;
+    static final int OPERATION_BULK_INSERT = 2;
+    static final int OPERATION_UPDATE = 3;
+    static final int OPERATION_DELETE = 4;
+    static final int OPERATION_APPLY_BATCH = 5;
+    static final int OPERATION_NOTIFY = 6;
+    static final int OPERATION_EXPORT = 7;
+
+    /** Keys of the cache counters in the metrics bundle */
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
+
+    /** Names of the operations, used as keys in the metrics bundle */
+    private static final String[] OPERATION_NAMES =
+            {"query", "insert", "bulk_insert", "update", "delete", "apply_batch", "notify", "export"};
+
+    /** Number of latency buckets, the last one holds everything from about 33 seconds up */
+    public static final int BUCKET_COUNT = 26;
+
+    /** Keys of the values in the bundle of one operation */
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_ROWS = "rows";
+    public static final String KEY_TOTAL_MICROS = "total_us";
+    public static final String KEY_MAX_MICROS = "max_us";
+    public static final String KEY_P50_MICROS = "p50_us";
+    public static final String KEY_P90_MICROS = "p90_us";
+    public static final String KEY_P99_MICROS = "p99_us";
+    public static final String KEY_BUCKETS = "buckets";
+
+    /** Stats of every operation, by URI match code. Only read after construction. */
+    private final SparseArray<OperationStats[]> mStats = new SparseArray<>();
+
+    /** Names of the URI match codes, used as keys in the metrics bundle */
+    private final SparseArray<String> mMatchNames = new SparseArray<>();
+
+    /**
+     * @param matchCodes the URI match codes of the provider
+     * @param matchNames a name for every match code
+     */
+    PetProviderMetrics(int[] matchCodes, String[] matchNames) {
+        for (int i = 0; i < matchCodes.length; i++) {
+            OperationStats[] stats = new OperationStats[OPERATION_NAMES.length];
+            for (int operation = 0; operation < stats.length; operation++) {
+                stats[operation] = new OperationStats();
+            }
+            mStats.put(matchCodes[i], stats);
+            mMatchNames.put(matchCodes[i], matchNames[i]);
+        }
+    }
+
+    /**
+     * Record an operation that started at the given {@link System#nanoTime()}.
+     * Operations on unknown match codes are ignored.
+     */
+    void record(int operation, int match, long startNanos, int rows) {
+        OperationStats[] stats = mStats.get(match);
+        if (stats != null) {
+            stats[operation].record(System.nanoTime() - startNanos, rows);
+        }
+    }
+
+    /**
+     * Returns the metrics of every operation that was recorded at least once, keyed by
+     * operation and match name, for example "query.pet_id".
+     */
+    Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < mStats.size(); i++) {
+            String matchName = mMatchNames.get(mStats.keyAt(i));
+            OperationStats[] stats = mStats.valueAt(i);
+            for (int operation = 0; operation < stats.length; operation++) {
+                if (stats[operation].mCount.get() > 0) {
+                    bundle.putBundle(OPERATION_NAMES[operation] + "." + matchName,
+                            stats[operation].toBundle());
+                }
+            }
+        }
+        return bundle;
+    }
+
+    /**
+     * Set all counters back to zero.
+     */
+    void reset() {
+        for (int i = 0; i < mStats.size(); i++) {
+            for (OperationStats stats : mStats.valueAt(i)) {
+                stats.reset();
+            }
+        }
+    }
+
+    /**
+     * Counters of one operation on one kind of URI.
+     */
+    private static class OperationStats {
+        final AtomicLong mCount = new AtomicLong();
+        final AtomicLong mRows = new AtomicLong();
+        final AtomicLong mTotalNanos = new AtomicLong();
+        final AtomicLong mMaxNanos = new AtomicLong();
+        final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long nanos, int rows) {
+            mCount.incrementAndGet();
+            mRows.addAndGet(rows);
+            mTotalNanos.addAndGet(nanos);
+            long max = mMaxNanos.get();
+            while (nanos > max && !mMaxNanos.compareAndSet(max, nanos)) {
+                max = mMaxNanos.get();
+            }
+            mBuckets.incrementAndGet(bucketOf(nanos / 1000));
+        }
+
+        void reset() {
+            mCount.set(0);
+            mRows.set(0);
+            mTotalNanos.set(0);
+            mMaxNanos.set(0);
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mBuckets.set(i, 0);
+            }
+        }
+
+        Bundle toBundle() {
+            long[] buckets = new long[BUCKET_COUNT];
+            long count = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = mBuckets.get(i);
+                count += buckets[i];
+            }
+            Bundle bundle = new Bundle();
+            bundle.putLong(KEY_COUNT, mCount.get());
+            bundle.putLong(KEY_ROWS, mRows.get());
+            bundle.putLong(KEY_TOTAL_MICROS, mTotalNanos.get() / 1000);
+            bundle.putLong(KEY_MAX_MICROS, mMaxNanos.get() / 1000);
+            bundle.putLong(KEY_P50_MICROS, percentile(buckets, count, 50));
+            bundle.putLong(KEY_P90_MICROS, percentile(buckets, count, 90));
+            bundle.putLong(KEY_P99_MICROS, percentile(buckets, count, 99));
+            bundle.putLongArray(KEY_BUCKETS, buckets);
+            return bundle;
+        }
+
+        /**
+         * Returns the bucket of an operation that took the given number of microseconds.
+         */
+        private static int bucketOf(long micros) {
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            return Math.min(bucket, BUCKET_COUNT - 1);
+        }
+
+        /**
+         * Returns the upper bound in microseconds of the bucket holding the given percentile.
+         */
+        private static long percentile(long[] buckets, long count, int percent) {
+            long target = (count * percent + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= target && seen > 0) {
+                    return 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+}
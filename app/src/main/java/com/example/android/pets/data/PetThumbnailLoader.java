@@ -0,0 +1,374 @@
+package com.example.android.pets.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+
+import com.example.android.pets.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.NO_PHOTO;
+import static com.example.android.pets.data.PetsContract.PetEntry.buildPhotoUri;
+
+/**
+ * {@link PetThumbnailLoader} shows the photos of the pets as small square thumbnails in
+ * {@link ImageView}s, without decoding photos on the main thread.
+ *
+ * Thumbnails are looked up in two caches before a photo is decoded. Decoded thumbnails are kept
+ * in memory, in an LRU cache bounded to a share of the heap. Scaled thumbnails are also saved as
+ * small JPEG files in the cache directory, so a photo is only decoded once, and not again after
+ * the app was restarted. Both caches are keyed by the _ID and the photo version of the pet, so a
+ * new photo never shows an old thumbnail.
+ *
+ * Photos are decoded on two background threads, downsampled while decoding so a big photo never
+ * lands in memory at full size. A request is cancelled when its view is bound to another pet, so
+ * fast scrolling doesn't pile up work for rows that are gone.
+ */
+public final class PetThumbnailLoader implements ComponentCallbacks2 {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetThumbnailLoader.class.getSimpleName();
+
+    private static final String DISK_CACHE_DIRECTORY = "thumbnails";
+
+    /** Largest size of the thumbnails on disk, the oldest are deleted above it */
+    private static final long MAX_DISK_CACHE_BYTES = 20 * 1024 * 1024;
+
+    /** Quality of the thumbnails on disk */
+    private static final int JPEG_QUALITY = 85;
+
+    /** Number of threads decoding photos */
+    private static final int THREAD_COUNT = 2;
+
+    private static PetThumbnailLoader sInstance;
+
+    /**
+     * Returns the loader of the app.
+     */
+    public static synchronized PetThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetThumbnailLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private final ContentResolver mResolver;
+
+    /** Width and height of the thumbnails, in pixels */
+    private final int mSize;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    private final File mDiskDirectory;
+
+    /** Size of the thumbnails on disk, or -1 until it is first needed. Guarded by the loader. */
+    private long mDiskCacheBytes = -1;
+
+    private final Executor mExecutor;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Request running for every view. Only used on the main thread. */
+    private final Map<ImageView, Request> mRequests = new WeakHashMap<>();
+
+    private PetThumbnailLoader(Context context) {
+        mResolver = context.getContentResolver();
+        mSize = context.getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        mDiskDirectory = new File(context.getCacheDir(), DISK_CACHE_DIRECTORY);
+
+        // An eighth of the heap holds more than a few screens of thumbnails
+        int maxKilobytes = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        mMemoryCache = new LruCache<String, Bitmap>(maxKilobytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Stay behind the main thread, so decoding doesn't drop frames
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PetThumbnail");
+            }
+        });
+        context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Show the thumbnail of the photo of a pet in the given view. It is set right away when it is
+     * in memory, otherwise the view is cleared and the thumbnail is set once it is loaded. Must be
+     * called on the main thread.
+     *
+     * @param view         The view to show the thumbnail in
+     * @param id           The _ID of the pet
+     * @param photoVersion The photo version of the pet, {@link PetsContract.PetEntry#NO_PHOTO}
+     *                     just clears the view
+     */
+    public void load(ImageView view, long id, long photoVersion) {
+        cancel(view);
+        if (photoVersion == NO_PHOTO) {
+            view.setImageDrawable(null);
+            return;
+        }
+        String key = id + "_" + photoVersion;
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        view.setImageDrawable(null);
+        Request request = new Request(view, id, key);
+        mRequests.put(view, request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * Cancel the thumbnail being loaded for the given view, if any. Must be called on the main
+     * thread.
+     */
+    public void cancel(ImageView view) {
+        Request request = mRequests.remove(view);
+        if (request != null) {
+            request.mCancelled = true;
+        }
+    }
+
+    /**
+     * Loads one thumbnail on a background thread and sets it on the main thread, unless it was
+     * cancelled in the meantime.
+     */
+    private class Request implements Runnable {
+
+        private final WeakReference<ImageView> mView;
+        private final long mId;
+        private final String mKey;
+        private volatile boolean mCancelled;
+
+        Request(ImageView view, long id, String key) {
+            mView = new WeakReference<>(view);
+            mId = id;
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final Bitmap bitmap = loadThumbnail(mId, mKey);
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mKey, bitmap);
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    ImageView view = mView.get();
+                    if (mCancelled || view == null || mRequests.get(view) != Request.this) {
+                        return;
+                    }
+                    mRequests.remove(view);
+                    view.setImageBitmap(bitmap);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the thumbnail from the disk cache, or decodes it from the photo and saves it in the
+     * disk cache. Returns null if the pet has no photo or it can't be decoded.
+     */
+    private Bitmap loadThumbnail(long id, String key) {
+        File file = new File(mDiskDirectory, key + ".jpg");
+        if (file.isFile()) {
+            Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+            if (bitmap != null) {
+                // Keep it away from the end of the disk cache, which is deleted first
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+        }
+        Bitmap bitmap = decodePhoto(id);
+        if (bitmap != null) {
+            saveThumbnail(file, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode the photo of the pet into a thumbnail, cropped to a square in its middle. The photo
+     * is downsampled by the biggest power of two that keeps it at least as big as the thumbnail.
+     */
+    private Bitmap decodePhoto(long id) {
+        ParcelFileDescriptor photo;
+        try {
+            photo = mResolver.openFileDescriptor(buildPhotoUri(id), "r");
+        } catch (IOException e) {
+            // The photo was removed since the pet was read
+            return null;
+        }
+        if (photo == null) {
+            return null;
+        }
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(photo.getFileDescriptor(), null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= mSize
+                    && options.outHeight / (sampleSize * 2) >= mSize) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            Bitmap bitmap = BitmapFactory.decodeFileDescriptor(photo.getFileDescriptor(), null, options);
+            if (bitmap == null) {
+                return null;
+            }
+            return ThumbnailUtils.extractThumbnail(bitmap, mSize, mSize,
+                    ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+        } finally {
+            try {
+                photo.close();
+            } catch (IOException e) {
+                // Nothing more to read from it
+            }
+        }
+    }
+
+    /**
+     * Save a thumbnail in the disk cache, and delete the oldest thumbnails if the cache got too
+     * big. A failure is only logged, the thumbnail is decoded again next time.
+     */
+    private void saveThumbnail(File file, Bitmap bitmap) {
+        File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            if (!mDiskDirectory.isDirectory() && !mDiskDirectory.mkdirs()) {
+                throw new IOException("Can't create " + mDiskDirectory);
+            }
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Can't move " + temp + " into place");
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Thumbnail " + file + " not saved", e);
+            temp.delete();
+            return;
+        }
+        synchronized (this) {
+            if (mDiskCacheBytes == -1) {
+                mDiskCacheBytes = sizeOf(mDiskDirectory.listFiles());
+            } else {
+                mDiskCacheBytes += file.length();
+            }
+            if (mDiskCacheBytes > MAX_DISK_CACHE_BYTES) {
+                trimDiskCache();
+            }
+        }
+    }
+
+    /**
+     * Delete the thumbnails used the longest time ago, until the disk cache is down to three
+     * quarters of its largest size. Must hold the loader.
+     */
+    private void trimDiskCache() {
+        File[] files = mDiskDirectory.listFiles();
+        if (files == null) {
+            mDiskCacheBytes = 0;
+            return;
+        }
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            // Read once, the sort must not see the times change
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return lastModified[a] < lastModified[b] ? -1 : (lastModified[a] == lastModified[b] ? 0 : 1);
+            }
+        });
+        long bytes = sizeOf(files);
+        for (int i = 0; i < order.length && bytes > MAX_DISK_CACHE_BYTES * 3 / 4; i++) {
+            File file = files[order[i]];
+            long length = file.length();
+            if (file.delete()) {
+                bytes -= length;
+            }
+        }
+        mDiskCacheBytes = bytes;
+    }
+
+    private static long sizeOf(File[] files) {
+        long bytes = 0;
+        if (files != null) {
+            for (File file : files) {
+                bytes += file.length();
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Give back the memory of the thumbnails when the system runs low on memory. In the
+     * background half of them are kept, so coming back to the catalog is still quick.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE) {
+            mMemoryCache.evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        mMemoryCache.evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // The thumbnails don't depend on the configuration
+    }
+}
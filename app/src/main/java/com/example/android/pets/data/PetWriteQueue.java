@@ -0,0 +1,224 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link PetWriteQueue} runs the inserts, updates and deletes of pet data on a single background
+ * thread, one after the other, and reports the result back on the main thread.
+ *
+ * The queue belongs to the application rather than to an activity, so a write that was started
+ * by an activity still completes and reports its result after the activity is finished.
+ * An update queued right after another update of the same URI, while that one is still waiting,
+ * is merged into it.
+ */
+public final class PetWriteQueue {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+
+    /**
+     * Receives the result of a write on the main thread. Override the methods for the writes
+     * you are interested in.
+     */
+    public static abstract class Callback {
+
+        /**
+         * Called when an insert is done.
+         *
+         * @param uri the content URI of the new pet, or null if the insert failed
+         */
+        public void onInsertComplete(Uri uri) {
+        }
+
+        /**
+         * Called when an update is done.
+         *
+         * @param rowCount the number of pets updated, 0 if the update failed
+         */
+        public void onUpdateComplete(int rowCount) {
+        }
+
+        /**
+         * Called when a delete is done.
+         *
+         * @param rowCount the number of pets deleted, 0 if the delete failed
+         */
+        public void onDeleteComplete(int rowCount) {
+        }
+    }
+
+    private static PetWriteQueue sInstance;
+
+    private final ContentResolver mResolver;
+
+    /** Runs the writes one at a time, in the order they were queued */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /** Delivers the results on the main thread */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** The last write queued if it is an update that has not started yet, guarded by this */
+    private PendingUpdate mLastPendingUpdate;
+
+    private PetWriteQueue(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the write queue of the application.
+     */
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue an insert of a pet with the given values.
+     */
+    public void insert(final Uri uri, final ContentValues values, final Callback callback) {
+        stopMergingUpdates();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Uri newUri = null;
+                try {
+                    newUri = mResolver.insert(uri, values);
+                } catch (IllegalArgumentException | SQLException e) {
+                    Log.e(LOG_TAG, "Error inserting pet into " + uri, e);
+                }
+
+                final Uri result = newUri;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (callback != null) {
+                            callback.onInsertComplete(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Queue an update of the pets at the given URI. If the last write in the queue is an update
+     * of the same URI without a selection that has not started yet, the values are merged into
+     * it instead, and both callbacks receive the result of the merged update.
+     */
+    public void update(Uri uri, ContentValues values, String selection, String[] selectionArgs,
+                       Callback callback) {
+        PendingUpdate update;
+        synchronized (this) {
+            update = mLastPendingUpdate;
+            if (selection == null && update != null && update.mSelection == null
+                    && update.mUri.equals(uri)) {
+                update.mValues.putAll(values);
+                update.mCallbacks.add(callback);
+                return;
+            }
+            update = new PendingUpdate(uri, new ContentValues(values), selection, selectionArgs);
+            update.mCallbacks.add(callback);
+            mLastPendingUpdate = update;
+        }
+        mExecutor.execute(update);
+    }
+
+    /**
+     * Queue a delete of the pets at the given URI.
+     */
+    public void delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       final Callback callback) {
+        stopMergingUpdates();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int rowCount = 0;
+                try {
+                    rowCount = mResolver.delete(uri, selection, selectionArgs);
+                } catch (IllegalArgumentException | SQLException e) {
+                    Log.e(LOG_TAG, "Error deleting pets at " + uri, e);
+                }
+
+                final int result = rowCount;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (callback != null) {
+                            callback.onDeleteComplete(result);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stop merging new updates into the update already queued, so they stay ordered after the
+     * write being queued.
+     */
+    private synchronized void stopMergingUpdates() {
+        mLastPendingUpdate = null;
+    }
+
+    /**
+     * An update waiting in the queue. More values and callbacks can be added to it until it starts.
+     */
+    private final class PendingUpdate implements Runnable {
+
+        private final Uri mUri;
+        private final ContentValues mValues;
+        private final String mSelection;
+        private final String[] mSelectionArgs;
+        private final List<Callback> mCallbacks = new ArrayList<>();
+
+        PendingUpdate(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            mUri = uri;
+            mValues = values;
+            mSelection = selection;
+            mSelectionArgs = selectionArgs;
+        }
+
+        @Override
+        public void run() {
+            // Once the update has started nothing more can be merged into it
+            synchronized (PetWriteQueue.this) {
+                if (mLastPendingUpdate == this) {
+                    mLastPendingUpdate = null;
+                }
+            }
+
+            int rowCount = 0;
+            try {
+                rowCount = mResolver.update(mUri, mValues, mSelection, mSelectionArgs);
+            } catch (IllegalArgumentException | SQLException e) {
+                Log.e(LOG_TAG, "Error updating pets at " + mUri, e);
+            }
+
+            final int result = rowCount;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback callback : mCallbacks) {
+                        if (callback != null) {
+                            callback.onUpdateComplete(result);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
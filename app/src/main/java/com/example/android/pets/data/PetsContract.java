@@ -1,6 +1,7 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -34,11 +35,218 @@ public class PetsContract {
      */
     public static final String PATH_PETS = "pets";
 
+    /**
+     * Path appended to the pets path for full-text searches on the pet name and breed.
+     * For instance, content://com.example.android.pets/pets/search/terr finds all pets with
+     * a word in their name or breed starting with "terr".
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the pets path for the shelter statistics.
+     * For instance, content://com.example.android.pets/pets/stats returns the number of pets and
+     * their weight by gender, and the most common breeds.
+     */
+    public static final String PATH_STATS = "stats";
+
+    /**
+     * Path appended to the pets path to export all the pets as a stream.
+     * For instance, content://com.example.android.pets/pets/export can be opened with
+     * {@link ContentResolver#openInputStream(Uri)} to read every pet as CSV, or with
+     * {@link ContentResolver#openTypedAssetFileDescriptor(Uri, String, android.os.Bundle)}
+     * to pick {@link #MIME_TYPE_CSV} or {@link #MIME_TYPE_NDJSON}.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path appended to the URI of a single pet for its photo.
+     * For instance, content://com.example.android.pets/pets/3/photo is the photo of the pet with
+     * _ID 3. Open it for reading to get the image, or for writing to set a new photo. The new
+     * photo replaces the old one once the written file is closed, and an empty file removes it.
+     */
+    public static final String PATH_PHOTO = "photo";
+
+    /**
+     * Path appended to the pets path for the log of the changes of the pets.
+     * For instance, content://com.example.android.pets/pets/changes?since=42 returns every
+     * insert, update and delete of a pet after the change with sequence number 42.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /** MIME type of the CSV export, with a header line and one pet per line */
+    public static final String MIME_TYPE_CSV = "text/csv";
+
+    /** MIME type of the newline-delimited JSON export, with one JSON object per pet and line */
+    public static final String MIME_TYPE_NDJSON = "application/x-ndjson";
+
+    /**
+     * Query parameter for paged queries on {@link PetEntry#CONTENT_URI} and for searches on
+     * {@link PetEntry#CONTENT_SEARCH_URI}: the maximum number of pets to return.
+     * On {@link PetStatsEntry#CONTENT_URI} it is the maximum number of top breeds to return.
+     * On {@link PetChangeEntry#CONTENT_URI} it is the maximum number of changes to return.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter for paged queries on {@link PetEntry#CONTENT_URI}: only pets after the pet
+     * with this {@link PetEntry#_ID} in the sort order are returned. Without
+     * {@link #QUERY_PARAMETER_SORT} the pets are in {@link PetEntry#_ID} order, so these are the
+     * pets with a greater {@link PetEntry#_ID}. Pass the last {@link PetEntry#_ID} of the previous
+     * page to get the next page. When sorting by name or weight, also pass the name or weight of
+     * that pet as {@link #QUERY_PARAMETER_AFTER_KEY}.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after";
+
+    /**
+     * Query parameter for paged queries on {@link PetEntry#CONTENT_URI} sorted by
+     * {@link #SORT_NAME} or {@link #SORT_WEIGHT}: the name or weight of the pet given by
+     * {@link #QUERY_PARAMETER_AFTER_ID}.
+     */
+    public static final String QUERY_PARAMETER_AFTER_KEY = "after_key";
+
+    /**
+     * Query parameter for paged queries on {@link PetEntry#CONTENT_URI}: only pets up to and
+     * including the pet with this {@link PetEntry#_ID} in the sort order are returned, so a page
+     * doesn't grow into the next one. When sorting by name or weight, also pass the name or
+     * weight of that pet as {@link #QUERY_PARAMETER_UNTIL_KEY}.
+     */
+    public static final String QUERY_PARAMETER_UNTIL_ID = "until";
+
+    /**
+     * Query parameter for paged queries on {@link PetEntry#CONTENT_URI} sorted by
+     * {@link #SORT_NAME} or {@link #SORT_WEIGHT}: the name or weight of the pet given by
+     * {@link #QUERY_PARAMETER_UNTIL_ID}.
+     */
+    public static final String QUERY_PARAMETER_UNTIL_KEY = "until_key";
+
+    /**
+     * Query parameter for {@link PetEntry#CONTENT_URI}: only pets of this gender are returned,
+     * one of the GENDER_ variables of {@link PetEntry}.
+     */
+    public static final String QUERY_PARAMETER_GENDER = "gender";
+
+    /**
+     * Query parameters for {@link PetEntry#CONTENT_URI}: only pets weighing at least, or at most,
+     * this many kilograms are returned.
+     */
+    public static final String QUERY_PARAMETER_MIN_WEIGHT = "min_weight";
+    public static final String QUERY_PARAMETER_MAX_WEIGHT = "max_weight";
+
+    /**
+     * Query parameter for {@link PetEntry#CONTENT_URI}: only pets whose name starts with this
+     * text are returned. The case of the letters A to Z doesn't matter.
+     */
+    public static final String QUERY_PARAMETER_NAME_PREFIX = "name_prefix";
+
+    /**
+     * Query parameter for {@link PetEntry#CONTENT_URI}: the order of the pets, one of the SORT_
+     * variables. It replaces the sort order of the query. Without it, pets are returned in the
+     * given sort order, or in {@link PetEntry#_ID} order for paged queries.
+     */
+    public static final String QUERY_PARAMETER_SORT = "sort";
+
+    //Sort orders, by name ignoring the case, by weight from the lightest, and from the last added
+    public static final String SORT_NAME = "name";
+    public static final String SORT_WEIGHT = "weight";
+    public static final String SORT_NEWEST = "newest";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that returns the operation metrics of the provider. The bundle
+     * holds one bundle per operation and kind of URI, keyed like "query.pet_id", and the cache
+     * counters. See {@link PetProviderMetrics} for the keys.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that sets the operation metrics of the provider back to zero.
+     */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that registers a consumer of the change log, named by the arg.
+     * Changes are only logged while a consumer is registered, and are kept until every consumer
+     * has acknowledged them. The returned bundle holds the {@link #EXTRA_CHANGE_SEQUENCE} to pull
+     * changes since: for a new consumer the last change so far, so it reads all the pets once
+     * and then only the changes. Registering again returns the last acknowledged change.
+     */
+    public static final String METHOD_REGISTER_CHANGE_CONSUMER = "register_change_consumer";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that acknowledges the changes up to the
+     * {@link #EXTRA_CHANGE_SEQUENCE} of the extras for the consumer named by the arg. Changes
+     * every consumer acknowledged are removed from the log.
+     */
+    public static final String METHOD_ACK_CHANGES = "ack_changes";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that removes the consumer of the change log named by the arg, so
+     * the log is no longer kept for it.
+     */
+    public static final String METHOD_UNREGISTER_CHANGE_CONSUMER = "unregister_change_consumer";
+
+    /** Long extra of the change log methods, the sequence number of a change */
+    public static final String EXTRA_CHANGE_SEQUENCE = "sequence";
+
+    /**
+     * Query parameter for {@link PetChangeEntry#CONTENT_URI}: only changes with a sequence number
+     * greater than this value are returned. Without it the whole log is returned.
+     */
+    public static final String QUERY_PARAMETER_SINCE = "since";
+
+    /**
+     * Query parameter for {@link ContentResolver#bulkInsert(Uri, android.content.ContentValues[])}
+     * on {@link PetEntry#CONTENT_URI}: the name of the import the pets belong to. Along with the
+     * pets, in the same transaction, the provider records {@link #QUERY_PARAMETER_IMPORT_ROWS} as
+     * the progress of the import, so the progress always matches the pets that are committed.
+     * Read it back with {@link #METHOD_GET_IMPORT_PROGRESS} to resume the import.
+     */
+    public static final String QUERY_PARAMETER_IMPORT = "import";
+
+    /**
+     * Query parameter that goes with {@link #QUERY_PARAMETER_IMPORT}: the number of rows of the
+     * import that are committed once the inserted pets are.
+     */
+    public static final String QUERY_PARAMETER_IMPORT_ROWS = "import_rows";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that returns the progress of the import named by the arg. The
+     * returned bundle holds the {@link #EXTRA_IMPORTED_ROWS}, 0 for an import that never
+     * committed anything.
+     */
+    public static final String METHOD_GET_IMPORT_PROGRESS = "get_import_progress";
+
+    /**
+     * Method for {@link ContentResolver#call(Uri, String, String, android.os.Bundle)} on
+     * {@link #BASE_CONTENT_URI} that forgets the progress of the import named by the arg, once
+     * it is finished.
+     */
+    public static final String METHOD_FINISH_IMPORT = "finish_import";
+
+    /** Long extra of the import methods, the number of rows of an import that are committed */
+    public static final String EXTRA_IMPORTED_ROWS = "imported_rows";
+
     public static final class PetEntry implements BaseColumns{
 
         /** The content URI to access the pet data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * The content URI to search the pet data in the provider. Append the search text
+         * with {@link #buildSearchUri(String)}.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to export all the pet data in the provider as a stream.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -63,12 +271,38 @@ public class PetsContract {
         public static final String COLUMN_PET_GENDER = "gender";
         //Column header of weight of pet which is int
         public static final String COLUMN_PET_WEIGHT = "weight";
+        //Column header of the version of the photo of the pet which is a long, read only.
+        //It is NO_PHOTO when the pet has no photo and changes every time a new photo is set.
+        public static final String COLUMN_PET_PHOTO_VERSION = "photo_version";
+
+        //Photo version of a pet without a photo
+        public static final long NO_PHOTO = 0;
+
+        /**
+         * The MIME type of the photo of a pet. Photos can be in any format Android can decode.
+         */
+        public static final String CONTENT_PHOTO_TYPE = "image/*";
 
         //Gender variables
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
+        /**
+         * Returns the URI that searches the pet names and breeds for the given text. Every word
+         * of the text matches as a prefix, and a pet must match all of the words.
+         */
+        public static Uri buildSearchUri(String text) {
+            return Uri.withAppendedPath(CONTENT_SEARCH_URI, Uri.encode(text));
+        }
+
+        /**
+         * Returns the URI of the photo of the pet with the given ID.
+         */
+        public static Uri buildPhotoUri(long id) {
+            return Uri.withAppendedPath(ContentUris.withAppendedId(CONTENT_URI, id), PATH_PHOTO);
+        }
+
         public static boolean isValidGender(int gender) {
             if (gender == GENDER_UNKNOWN || gender == GENDER_MALE || gender == GENDER_FEMALE) {
                 return true;
@@ -76,4 +310,78 @@ public class PetsContract {
         }
     }
 
+    public static final class PetStatsEntry {
+
+        /**
+         * The content URI of the shelter statistics. Every row of the cursor is one statistic:
+         * {@link #TYPE_ALL} for all the pets, {@link #TYPE_GENDER} for the pets of one gender
+         * and {@link #TYPE_BREED} for one of the most common breeds, most common first.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_STATS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_STATS;
+
+        //Column header for the type of the statistic, one of the TYPE_ variables
+        public static final String COLUMN_STAT_TYPE = "type";
+        //Column header for what the statistic is about: the gender for TYPE_GENDER,
+        //the breed for TYPE_BREED ("" for pets without a breed) and null for TYPE_ALL
+        public static final String COLUMN_STAT_KEY = "key";
+        //Column header for the number of pets, an int
+        public static final String COLUMN_PET_COUNT = "pet_count";
+        //Column header for the total weight of the pets, an int, null for TYPE_BREED
+        public static final String COLUMN_TOTAL_WEIGHT = "total_weight";
+        //Column header for the average weight of the pets, a real, null for TYPE_BREED
+        //and when there are no pets
+        public static final String COLUMN_AVERAGE_WEIGHT = "average_weight";
+
+        //Statistic types
+        public static final String TYPE_ALL = "all";
+        public static final String TYPE_GENDER = "gender";
+        public static final String TYPE_BREED = "breed";
+
+        //Number of top breeds returned when no limit is given
+        public static final int DEFAULT_TOP_BREEDS = 5;
+    }
+
+    public static final class PetChangeEntry {
+
+        /**
+         * The content URI of the change log of the pets. Every row of the cursor is one insert,
+         * update or delete of a pet, in the order they were made. Use {@link #buildChangesUri}
+         * to pull only the changes a consumer didn't see yet, and {@link #QUERY_PARAMETER_LIMIT}
+         * to pull them in pages. The cursor is notified like the pets table.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_CHANGES;
+
+        //Column header for the sequence number of the change, a long that grows with every
+        //change and is never used again, also after the change was removed from the log
+        public static final String COLUMN_SEQUENCE = "sequence";
+        //Column header for what was done to the pet, one of the OPERATION_ variables
+        public static final String COLUMN_OPERATION = "operation";
+        //Column header for the _ID of the pet that changed
+        public static final String COLUMN_PET_ID = "pet_id";
+
+        //Operations
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /**
+         * Returns the URI of the changes made after the change with the given sequence number.
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .build();
+        }
+    }
+
 }
@@ -0,0 +1,172 @@
+package com.example.android.pets;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetFilter;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.example.android.pets.CatalogActivity.NO_LAST_ID;
+import static com.example.android.pets.CatalogActivity.PAGE_SIZE;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static com.example.android.pets.data.PetsContract.SORT_NEWEST;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the pages of the catalog, read through {@link CatalogActivity#buildPageUri}, show
+ * every pet exactly once when pets are added inside pages that were already closed by the page
+ * after them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class CatalogPagingTest {
+
+    /** Enough pets for two full pages and a last page that isn't full */
+    private static final int PETS = 2 * PAGE_SIZE + PAGE_SIZE / 2;
+
+    private static final String[] PROJECTION = {_ID, COLUMN_PET_NAME, COLUMN_PET_WEIGHT};
+
+    private PetProvider mProvider;
+
+    /** Bounds of every page, like the catalog keeps them */
+    private final List<Long> mPageAfterIds = new ArrayList<>();
+    private final List<String> mPageAfterKeys = new ArrayList<>();
+    private final List<Long> mPageLastIds = new ArrayList<>();
+    private final List<String> mPageLastKeys = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+        for (int i = 0; i < PETS; i++) {
+            insertPet(String.format(Locale.US, "Pet %03d", i));
+        }
+    }
+
+    @Test
+    public void petsAddedToAClosedPageOfTheNewestStayVisible() {
+        PetFilter filter = new PetFilter(null, null, null, null, SORT_NEWEST);
+        openPages(filter);
+
+        // Every new pet is the newest, so it lands in the first page
+        for (int i = 0; i < 3; i++) {
+            insertPet("New " + i);
+        }
+        assertEquals(readAllPets(filter), readPages(filter));
+    }
+
+    @Test
+    public void petsAddedToClosedPagesByNameStayVisible() {
+        PetFilter filter = new PetFilter(null, null, null, null, SORT_NAME);
+        openPages(filter);
+
+        // Names that sort into the first and into the second page
+        insertPet("Aaron");
+        insertPet("abby");
+        insertPet(String.format(Locale.US, "Pet %03dx", PAGE_SIZE + 10));
+        assertEquals(readAllPets(filter), readPages(filter));
+    }
+
+    /**
+     * Load the pages like the catalog does while the user scrolls: every full last page is closed
+     * at its last pet and followed by a new last page.
+     */
+    private void openPages(PetFilter filter) {
+        addPage(0, null);
+        while (true) {
+            int lastPage = mPageAfterIds.size() - 1;
+            List<String[]> pets = readPage(filter, lastPage);
+            if (pets.size() < PAGE_SIZE) {
+                break;
+            }
+            String[] lastPet = pets.get(pets.size() - 1);
+            long lastId = Long.parseLong(lastPet[0]);
+            String lastKey = lastPet[1];
+            mPageLastIds.set(lastPage, lastId);
+            mPageLastKeys.set(lastPage, lastKey);
+            addPage(lastId, lastKey);
+        }
+        assertEquals("Pages", 3, mPageAfterIds.size());
+    }
+
+    private void addPage(long afterId, String afterKey) {
+        mPageAfterIds.add(afterId);
+        mPageAfterKeys.add(afterKey);
+        mPageLastIds.add(NO_LAST_ID);
+        mPageLastKeys.add(null);
+    }
+
+    /**
+     * Returns the _IDs of the pets of all the pages, in the order the catalog shows them.
+     */
+    private List<Long> readPages(PetFilter filter) {
+        List<Long> ids = new ArrayList<>();
+        for (int page = 0; page < mPageAfterIds.size(); page++) {
+            for (String[] pet : readPage(filter, page)) {
+                ids.add(Long.parseLong(pet[0]));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the _ID and the sort key of every pet of a page.
+     */
+    private List<String[]> readPage(PetFilter filter, int page) {
+        Cursor cursor = mProvider.query(CatalogActivity.buildPageUri(filter, page,
+                mPageAfterIds.get(page), mPageAfterKeys.get(page), mPageLastIds.get(page),
+                mPageLastKeys.get(page)), PROJECTION, null, null, null);
+        List<String[]> pets = new ArrayList<>();
+        try {
+            String sortKeyColumn = filter.getSortKeyColumn();
+            while (cursor.moveToNext()) {
+                String key = sortKeyColumn == null
+                        ? null : cursor.getString(cursor.getColumnIndex(sortKeyColumn));
+                pets.add(new String[] {cursor.getString(0), key});
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /**
+     * Returns the _IDs of all the pets in the order of the filter, without pages.
+     */
+    private List<Long> readAllPets(PetFilter filter) {
+        Cursor cursor = mProvider.query(filter.appendTo(CONTENT_URI.buildUpon()).build(),
+                PROJECTION, null, null, null);
+        List<Long> ids = new ArrayList<>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private void insertPet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PET_NAME, name);
+        values.put(COLUMN_PET_GENDER, 0);
+        values.put(COLUMN_PET_WEIGHT, 5);
+        mProvider.insert(CONTENT_URI, values);
+    }
+}
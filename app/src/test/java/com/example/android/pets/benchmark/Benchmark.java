@@ -0,0 +1,187 @@
+package com.example.android.pets.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link Benchmark} runs an operation a number of times and reports its throughput, latency and
+ * allocation, for the benchmarks of the data layer.
+ *
+ * The allocation is read from the JVM of the local tests, and adds up the bytes allocated by
+ * every thread, since Robolectric runs the SQLite calls on a thread of its own. It is only known
+ * on JVMs that count allocated bytes per thread, like HotSpot, and is reported as -1 on others.
+ *
+ * The numbers come from the JVM and the SQLite of Robolectric, not from a device, so they are
+ * meant to compare code paths with each other and with earlier runs on the same machine.
+ */
+final class Benchmark {
+
+    /** System property with the comma separated row counts the benchmarks run at */
+    static final String ROWS_PROPERTY = "pets.benchmark.rows";
+
+    private static final String DEFAULT_ROWS = "1000,100000,1000000";
+
+    /**
+     * An operation that is measured. The index counts the runs, from 0.
+     */
+    abstract static class Operation {
+        abstract void run(int index) throws Exception;
+    }
+
+    /**
+     * Throughput, latency and allocation of the runs of an operation.
+     */
+    static final class Result {
+        final String name;
+        final int operations;
+        final long elapsedNanos;
+        final long allocatedBytes;
+        /** Latency of every run, sorted */
+        private final long[] mLatencyNanos;
+
+        Result(String name, int operations, long elapsedNanos, long allocatedBytes,
+               long[] latencyNanos) {
+            this.name = name;
+            this.operations = operations;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            mLatencyNanos = latencyNanos;
+            Arrays.sort(mLatencyNanos);
+        }
+
+        double operationsPerSecond() {
+            return operations * 1e9 / Math.max(elapsedNanos, 1);
+        }
+
+        /** Bytes allocated per run, or -1 if the JVM doesn't count them */
+        long bytesPerOperation() {
+            return allocatedBytes < 0 ? -1 : allocatedBytes / Math.max(operations, 1);
+        }
+
+        /** Latency in nanoseconds that the given percentage of the runs stayed under */
+        long percentileNanos(double percent) {
+            if (mLatencyNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percent / 100 * mLatencyNanos.length) - 1;
+            return mLatencyNanos[Math.max(0, Math.min(index, mLatencyNanos.length - 1))];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%-40s %9d ops %12.1f ops/s   p50 %9.1f us   p99 %9.1f us   %8d B/op",
+                    name, operations, operationsPerSecond(), percentileNanos(50) / 1000.0,
+                    percentileNanos(99) / 1000.0, bytesPerOperation());
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Returns the row counts the benchmarks run at, from the {@link #ROWS_PROPERTY}.
+     */
+    static int[] rowCounts() {
+        String[] counts = System.getProperty(ROWS_PROPERTY, DEFAULT_ROWS).split(",");
+        int[] rows = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            rows[i] = Integer.parseInt(counts[i].trim());
+        }
+        return rows;
+    }
+
+    /**
+     * Run the operation the given number of times on the calling thread, print the result and
+     * return it.
+     */
+    static Result measure(String name, int operations, Operation operation) throws Exception {
+        long[] latencyNanos = new long[operations];
+        long allocatedBefore = allocatedBytes();
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            long operationStartNanos = System.nanoTime();
+            operation.run(i);
+            latencyNanos[i] = System.nanoTime() - operationStartNanos;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long allocatedAfter = allocatedBytes();
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0
+                ? -1 : allocatedAfter - allocatedBefore;
+
+        Result result = new Result(name, operations, elapsedNanos, allocated, latencyNanos);
+        report(result.toString());
+        return result;
+    }
+
+    /**
+     * Run the operation without measuring it, so the code it runs is compiled before it is
+     * measured.
+     */
+    static void warmUp(int operations, Operation operation) throws Exception {
+        for (int i = 0; i < operations; i++) {
+            operation.run(i);
+        }
+    }
+
+    /**
+     * Returns the result of measuring the latency of operations that ran on other threads, from
+     * their latencies in nanoseconds, and prints it. The allocation is not known.
+     */
+    static Result latencies(String name, List<Long> latencyNanos, long elapsedNanos) {
+        long[] latencies = new long[latencyNanos.size()];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = latencyNanos.get(i);
+        }
+        Result result = new Result(name, latencies.length, elapsedNanos, -1, latencies);
+        report(result.toString());
+        return result;
+    }
+
+    /**
+     * Print a line of the report, which the build shows along with the test output.
+     */
+    static void report(String line) {
+        System.out.println(line);
+    }
+
+    /**
+     * Returns the bytes allocated so far by the threads that are alive, or -1 if the JVM doesn't
+     * count them.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported()
+                || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : allocations.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            // Threads that ended since their id was read are reported as -1
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Returns the bytes of the heap in use after collecting the garbage, so the difference between
+     * two calls is the memory held by the objects kept in between.
+     */
+    static long retainedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
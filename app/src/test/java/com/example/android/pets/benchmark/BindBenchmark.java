@@ -0,0 +1,107 @@
+package com.example.android.pets.benchmark;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.TextView;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * Measures the time to bind a row of the catalog to a list item, on a synthetic
+ * {@link MatrixCursor}: first as the old cursor adapter did it, looking up the views, the column
+ * indices and the unknown breed string for every row, then with the views kept in a holder and
+ * the indices and string looked up once, as the catalog adapters do now.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class BindBenchmark {
+
+    /** Rows of the cursor, bound over and over */
+    private static final int CURSOR_ROWS = 1000;
+
+    /** Number of rows bound per measurement */
+    private static final int BINDS = 20000;
+
+    /** Holds the views of a list item, like the view holders of the adapters */
+    private static class ViewHolder {
+        final TextView petNameView;
+        final TextView petSummaryView;
+
+        ViewHolder(View view) {
+            petNameView = (TextView) view.findViewById(R.id.name);
+            petSummaryView = (TextView) view.findViewById(R.id.summary);
+        }
+    }
+
+    @Test
+    public void bindTimePerRow() throws Exception {
+        final Context context = RuntimeEnvironment.application;
+        final MatrixCursor cursor = new MatrixCursor(
+                new String[] {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_PHOTO_VERSION});
+        for (int i = 0; i < CURSOR_ROWS; i++) {
+            // Every fifth pet has no breed and shows the unknown breed string
+            cursor.addRow(new Object[] {i, "Pet " + i, i % 5 == 0 ? "" : "Breed " + (i % 20), 0});
+        }
+        final View view = LayoutInflater.from(context)
+                .inflate(R.layout.list_item, new FrameLayout(context), false);
+
+        Benchmark.Operation before = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                cursor.moveToPosition(index % CURSOR_ROWS);
+                TextView petNameView = (TextView) view.findViewById(R.id.name);
+                TextView petSummaryView = (TextView) view.findViewById(R.id.summary);
+                String petName = cursor.getString(cursor.getColumnIndex(COLUMN_PET_NAME));
+                String petSummary = cursor.getString(cursor.getColumnIndex(COLUMN_PET_BREED));
+                if (TextUtils.isEmpty(petSummary)) {
+                    petSummary = context.getString(R.string.string_unknown_breed);
+                }
+                petNameView.setText(petName);
+                petSummaryView.setText(petSummary);
+            }
+        };
+
+        final ViewHolder holder = new ViewHolder(view);
+        final int nameColumnIndex = cursor.getColumnIndex(COLUMN_PET_NAME);
+        final int breedColumnIndex = cursor.getColumnIndex(COLUMN_PET_BREED);
+        final String unknownBreed = context.getString(R.string.string_unknown_breed);
+        Benchmark.Operation after = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                cursor.moveToPosition(index % CURSOR_ROWS);
+                String petSummary = cursor.getString(breedColumnIndex);
+                if (TextUtils.isEmpty(petSummary)) {
+                    petSummary = unknownBreed;
+                }
+                holder.petNameView.setText(cursor.getString(nameColumnIndex));
+                holder.petSummaryView.setText(petSummary);
+            }
+        };
+
+        Benchmark.report("--- Bind of a row from a cursor of " + CURSOR_ROWS + " rows");
+        Benchmark.warmUp(BINDS, before);
+        Benchmark.warmUp(BINDS, after);
+        Benchmark.Result lookups = Benchmark.measure("bind, lookups per row", BINDS, before);
+        Benchmark.Result cached = Benchmark.measure("bind, holder and cached indices", BINDS, after);
+        Benchmark.report(String.format(Locale.US, "    %.0f ns per row before, %.0f ns after",
+                (double) lookups.elapsedNanos / BINDS, (double) cached.elapsedNanos / BINDS));
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the rows per second of {@link PetProvider#bulkInsert}, one transaction for the whole
+ * batch, with inserting the same pets one at a time, one transaction and notification per pet.
+ *
+ * Every pet inserted on its own is committed on its own, so the per-row path is capped at
+ * {@link #MAX_PER_ROW_ROWS} pets, which is plenty to tell its rate.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class BulkInsertBenchmark {
+
+    /** Most pets inserted one at a time for a row count */
+    private static final int MAX_PER_ROW_ROWS = 10000;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+    }
+
+    @Test
+    public void bulkInsertAgainstPerRowInsert() throws Exception {
+        // Compile both paths before measuring them
+        insertPerRow(100);
+        insertInBulk(100);
+
+        for (int rows : Benchmark.rowCounts()) {
+            Benchmark.report("--- Insert of " + rows + " pets");
+            int perRowRows = Math.min(rows, MAX_PER_ROW_ROWS);
+            Benchmark.Result perRow = insertPerRow(perRowRows);
+            Benchmark.Result bulk = insertInBulk(rows);
+
+            double perRowRate = perRowRows * 1e9 / Math.max(perRow.elapsedNanos, 1);
+            double bulkRate = rows * 1e9 / Math.max(bulk.elapsedNanos, 1);
+            Benchmark.report(String.format(Locale.US,
+                    "    per row %.1f rows/s, bulk %.1f rows/s, bulk is %.1fx faster",
+                    perRowRate, bulkRate, bulkRate / perRowRate));
+        }
+    }
+
+    /**
+     * Insert the given number of pets one insert at a time, then delete them again.
+     */
+    private Benchmark.Result insertPerRow(int rows) throws Exception {
+        Benchmark.Result result = Benchmark.measure("insert per row", rows,
+                new Benchmark.Operation() {
+                    @Override
+                    void run(int index) {
+                        ContentValues values = new ContentValues();
+                        PetProviderBenchmark.fillPet(values, index);
+                        mProvider.insert(CONTENT_URI, values);
+                    }
+                });
+        assertEquals(rows, mProvider.delete(CONTENT_URI, null, null));
+        return result;
+    }
+
+    /**
+     * Insert the given number of pets with a single bulk insert, then delete them again.
+     */
+    private Benchmark.Result insertInBulk(int rows) throws Exception {
+        final ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = new ContentValues();
+            PetProviderBenchmark.fillPet(values[i], i);
+        }
+        Benchmark.Result result = Benchmark.measure("bulk insert", 1, new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                assertEquals(values.length, mProvider.bulkInsert(CONTENT_URI, values));
+            }
+        });
+        assertEquals(rows, mProvider.delete(CONTENT_URI, null, null));
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.CatalogSnapshot;
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetFilter;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.Locale;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry.GENDER_MALE;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the memory the catalog takes as a {@link CatalogSnapshot} and as a list of
+ * {@link Pet}s read from the same cursor, at every row count of {@link Benchmark#rowCounts()},
+ * with pets that have names of their own and with pets that share a few names. Then compares
+ * filtering and sorting the snapshot with querying the first page of the same filter.
+ *
+ * The memory is the heap the objects keep after a garbage collection. The cursor itself is not
+ * compared: on Robolectric its window is made of Java objects, while on a device it is a native
+ * window of up to 2 MB that is filled again as the cursor moves.
+ *
+ * Run with "gradlew testDebugUnitTest -Pbenchmark --tests '*CatalogSnapshotBenchmark'".
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class CatalogSnapshotBenchmark {
+
+    /** Pets per bulk insert, like the chunks of the importer */
+    private static final int BULK_INSERT_ROWS = 10000;
+
+    /** Number of names of the pets that share names */
+    private static final int SHARED_NAMES = 1000;
+
+    /** Number of runs of a filter, and of runs before it is measured */
+    private static final int FILTER_RUNS = 20;
+    private static final int WARM_UP_FILTER_RUNS = 3;
+
+    /** Columns read by the catalog */
+    private static final String[] CATALOG_PROJECTION =
+            {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_PHOTO_VERSION};
+
+    private PetProvider mProvider;
+
+    /**
+     * What the footprint is measured of. Fields, unlike local variables, stay reachable until
+     * they are cleared.
+     */
+    private CatalogSnapshot mSnapshot;
+    private List<Pet> mPets;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+    }
+
+    @Test
+    public void footprintAndFilter() throws Exception {
+        for (int rows : Benchmark.rowCounts()) {
+            fill(rows, rows);
+            Benchmark.report("--- Catalog of " + rows + " pets with names of their own");
+            measureFootprint();
+            measureFilter();
+
+            fill(rows, SHARED_NAMES);
+            Benchmark.report("--- Catalog of " + rows + " pets sharing " + SHARED_NAMES + " names");
+            measureFootprint();
+        }
+    }
+
+    /**
+     * Replace the pets with the given number of pets, named after their number modulo the given
+     * number of names.
+     */
+    private void fill(int rows, int names) {
+        mProvider.delete(CONTENT_URI, null, null);
+        for (int start = 0; start < rows; start += BULK_INSERT_ROWS) {
+            ContentValues[] values = new ContentValues[Math.min(BULK_INSERT_ROWS, rows - start)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new ContentValues();
+                PetProviderBenchmark.fillPet(values[i], start + i);
+                values[i].put(COLUMN_PET_NAME, "Pet " + (start + i) % names);
+            }
+            assertEquals(values.length, mProvider.bulkInsert(CONTENT_URI, values));
+        }
+    }
+
+    /**
+     * Read the catalog into a snapshot and into a list of pets, and report the memory each of
+     * them keeps once the cursor is closed.
+     */
+    private void measureFootprint() {
+        Cursor cursor = queryCatalog();
+        try {
+            mSnapshot = CatalogSnapshot.load(cursor);
+            mPets = Pet.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+        int rows = mSnapshot.size();
+        assertEquals(rows, mPets.size());
+
+        // Let go of one after the other, the difference is what each of them kept
+        long bothBytes = Benchmark.retainedBytes();
+        mPets = null;
+        long snapshotOnlyBytes = Benchmark.retainedBytes();
+        mSnapshot = null;
+        long snapshotBytes = snapshotOnlyBytes - Benchmark.retainedBytes();
+        long petBytes = bothBytes - snapshotOnlyBytes;
+        reportFootprint("CatalogSnapshot", rows, snapshotBytes);
+        reportFootprint("List<Pet>", rows, petBytes);
+    }
+
+    private static void reportFootprint(String name, int rows, long bytes) {
+        Benchmark.report(String.format(Locale.US, "%-40s %12d bytes %9.1f B/row",
+                name, bytes, bytes / (double) Math.max(rows, 1)));
+    }
+
+    /**
+     * Time the male pets of 10 to 40 kg sorted by name, filtered and sorted in the snapshot,
+     * and queried as the first page of the catalog.
+     */
+    private void measureFilter() throws Exception {
+        Cursor cursor = queryCatalog();
+        final CatalogSnapshot snapshot;
+        try {
+            snapshot = CatalogSnapshot.load(cursor);
+        } finally {
+            cursor.close();
+        }
+        final int[] rows = new int[snapshot.size()];
+        Benchmark.Operation filterSnapshot = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                int count = snapshot.filter(GENDER_MALE, 10, 40, rows);
+                snapshot.sort(rows, count, CatalogSnapshot.ORDER_NAME);
+            }
+        };
+
+        final Uri firstPageUri = new PetFilter(GENDER_MALE, 10, 40, null, SORT_NAME)
+                .appendTo(CONTENT_URI.buildUpon())
+                .appendQueryParameter(QUERY_PARAMETER_LIMIT, "50").build();
+        Benchmark.Operation queryFirstPage = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                Cursor cursor = mProvider.query(firstPageUri, CATALOG_PROJECTION, null, null, null);
+                try {
+                    cursor.moveToLast();
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+
+        Benchmark.warmUp(WARM_UP_FILTER_RUNS, filterSnapshot);
+        Benchmark.warmUp(WARM_UP_FILTER_RUNS, queryFirstPage);
+        Benchmark.measure("snapshot filter and sort by name", FILTER_RUNS, filterSnapshot);
+        Benchmark.measure("query of the first page by name", FILTER_RUNS, queryFirstPage);
+    }
+
+    private Cursor queryCatalog() {
+        return mProvider.query(CONTENT_URI, CatalogSnapshot.COLUMNS, null, null, _ID + " ASC");
+    }
+}
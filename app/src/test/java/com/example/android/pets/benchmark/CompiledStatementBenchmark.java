@@ -0,0 +1,142 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the paths {@link PetProvider} takes to update and delete a single pet by its _ID URI.
+ * An update of all four columns of the pet runs the compiled update statement the provider
+ * keeps, while an update of some of the columns goes through SQLiteDatabase.update, which builds
+ * the statement and the arguments every time. A delete by _ID URI runs the compiled delete
+ * statement, and is compared with deleting the same kind of pet by a selection on the table.
+ * Every way reports its latency and allocation per operation.
+ *
+ * Run with "gradlew testDebugUnitTest -Pbenchmark --tests '*CompiledStatementBenchmark'".
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class CompiledStatementBenchmark {
+
+    /** Number of updates and deletes measured for every way */
+    private static final int OPERATIONS = 5000;
+
+    /** Number of updates and deletes run for every way before it is measured */
+    private static final int WARM_UP_OPERATIONS = 500;
+
+    /** Pets deleted by every way */
+    private static final int DELETED_PETS = WARM_UP_OPERATIONS + OPERATIONS;
+
+    /** Pets per bulk insert, like the chunks of the importer */
+    private static final int BULK_INSERT_ROWS = 10000;
+
+    private PetProvider mProvider;
+
+    /** _ID of the first pet, the pets have consecutive _IDs from there */
+    private long mFirstId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+
+        // The pets deleted by both ways, the first ones are updated too
+        for (int start = 0; start < 2 * DELETED_PETS; start += BULK_INSERT_ROWS) {
+            ContentValues[] values =
+                    new ContentValues[Math.min(BULK_INSERT_ROWS, 2 * DELETED_PETS - start)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = new ContentValues();
+                PetProviderBenchmark.fillPet(values[i], start + i);
+            }
+            assertEquals(values.length, mProvider.bulkInsert(CONTENT_URI, values));
+        }
+        mFirstId = findFirstId();
+    }
+
+    @Test
+    public void updateById() throws Exception {
+        // Both ways update the same pets through the same URIs
+        Benchmark.Operation compiledUpdate = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                ContentValues values = new ContentValues();
+                PetProviderBenchmark.fillPet(values, index);
+                assertEquals(1, mProvider.update(petUri(index % OPERATIONS), values, null, null));
+            }
+        };
+
+        Benchmark.Operation partialUpdate = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PET_WEIGHT, index % 60);
+                assertEquals(1, mProvider.update(petUri(index % OPERATIONS), values, null, null));
+            }
+        };
+
+        Benchmark.report("--- Update of a pet by _ID URI");
+        Benchmark.warmUp(WARM_UP_OPERATIONS, compiledUpdate);
+        Benchmark.warmUp(WARM_UP_OPERATIONS, partialUpdate);
+        Benchmark.measure("all columns, compiled statement", OPERATIONS, compiledUpdate);
+        Benchmark.measure("weight only, SQLiteDatabase.update", OPERATIONS, partialUpdate);
+    }
+
+    @Test
+    public void deleteById() throws Exception {
+        // Each way deletes the pets of its own half of the table, the next one every time
+        final long[] nextIds = { mFirstId, mFirstId + DELETED_PETS };
+        Benchmark.Operation compiledDelete = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                Uri uri = ContentUris.withAppendedId(CONTENT_URI, nextIds[0]++);
+                assertEquals(1, mProvider.delete(uri, null, null));
+            }
+        };
+
+        Benchmark.Operation selectionDelete = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                assertEquals(1, mProvider.delete(CONTENT_URI, _ID + "=?",
+                        new String[] { String.valueOf(nextIds[1]++) }));
+            }
+        };
+
+        Benchmark.report("--- Delete of a pet");
+        Benchmark.warmUp(WARM_UP_OPERATIONS, compiledDelete);
+        Benchmark.warmUp(WARM_UP_OPERATIONS, selectionDelete);
+        Benchmark.measure("by _ID URI, compiled statement", OPERATIONS, compiledDelete);
+        Benchmark.measure("by selection, SQLiteDatabase.delete", OPERATIONS, selectionDelete);
+    }
+
+    /**
+     * Returns the URI of the pet with the given number.
+     */
+    private Uri petUri(int number) {
+        return ContentUris.withAppendedId(CONTENT_URI, mFirstId + number);
+    }
+
+    private long findFirstId() {
+        Cursor cursor = mProvider.query(CONTENT_URI, new String[] {_ID}, null, null, _ID + " ASC");
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Baseline of the hot paths of {@link PetProvider}: single insert, bulk insert, query by _ID,
+ * full catalog scan, update by selection and delete-all, at every row count of
+ * {@link Benchmark#rowCounts()}. Every operation reports its ops/sec, latency and allocation per
+ * operation.
+ *
+ * Run with "gradlew testDebugUnitTest -Pbenchmark --tests '*PetProviderBenchmark'".
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetProviderBenchmark {
+
+    /** Pets per bulk insert, like the chunks of the importer */
+    private static final int BULK_INSERT_ROWS = 10000;
+
+    /** Number of runs of the operations on a single pet */
+    private static final int SINGLE_PET_OPERATIONS = 1000;
+
+    /** Number of runs of an operation before it is measured */
+    private static final int WARM_UP_OPERATIONS = 100;
+
+    /** Number of full scans of the catalog */
+    private static final int CATALOG_SCANS = 3;
+
+    /** Number of pets changed by every update by selection */
+    private static final int UPDATE_SELECTION_ROWS = 100;
+
+    /** Columns read by the catalog */
+    private static final String[] CATALOG_PROJECTION =
+            {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_PHOTO_VERSION};
+
+    private static final String[] BREEDS = {"Labrador Retriever", "Siamese", "Beagle", "Persian",
+            "Poodle", "Maine Coon", "Boxer", "Tabby", null};
+
+    private PetProvider mProvider;
+
+    private final Random mRandom = new Random(42);
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+    }
+
+    @Test
+    public void dataLayerOperations() throws Exception {
+        for (int rows : Benchmark.rowCounts()) {
+            Benchmark.report("--- PetProvider with " + rows + " pets");
+            benchmarkAt(rows);
+        }
+    }
+
+    /**
+     * Fill the empty table with the given number of pets, measure every operation and empty the
+     * table again.
+     */
+    private void benchmarkAt(final int rows) throws Exception {
+        // The chunk is refilled for every bulk insert, so the pets don't all stay in memory
+        final ContentValues[] chunk = new ContentValues[Math.min(rows, BULK_INSERT_ROWS)];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = new ContentValues();
+        }
+        final int chunks = (rows + chunk.length - 1) / chunk.length;
+        Benchmark.Result bulkInsert = Benchmark.measure("bulk insert of " + chunk.length, chunks,
+                new Benchmark.Operation() {
+                    @Override
+                    void run(int index) {
+                        int chunkRows = Math.min(chunk.length, rows - index * chunk.length);
+                        ContentValues[] values = chunk;
+                        if (chunkRows < chunk.length) {
+                            values = new ContentValues[chunkRows];
+                            System.arraycopy(chunk, 0, values, 0, chunkRows);
+                        }
+                        for (int i = 0; i < chunkRows; i++) {
+                            fillPet(values[i], index * chunk.length + i);
+                        }
+                        assertEquals(chunkRows, mProvider.bulkInsert(CONTENT_URI, values));
+                    }
+                });
+        reportPerRow("bulk insert", bulkInsert, rows);
+        final long firstId = findFirstId();
+
+        Benchmark.Operation insert = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                ContentValues values = new ContentValues();
+                fillPet(values, rows + index);
+                mProvider.insert(CONTENT_URI, values);
+            }
+        };
+        Benchmark.warmUp(WARM_UP_OPERATIONS, insert);
+        Benchmark.measure("single insert", SINGLE_PET_OPERATIONS, insert);
+
+        Benchmark.Operation queryById = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                Uri uri = ContentUris.withAppendedId(CONTENT_URI, firstId + mRandom.nextInt(rows));
+                Cursor cursor = mProvider.query(uri, null, null, null, null);
+                try {
+                    cursor.moveToFirst();
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        Benchmark.warmUp(WARM_UP_OPERATIONS, queryById);
+        int hitsBefore = mProvider.getCacheHitCount();
+        Benchmark.measure("query by _ID", SINGLE_PET_OPERATIONS, queryById);
+        Benchmark.report("    pet cache hits " + (mProvider.getCacheHitCount() - hitsBefore)
+                + " of " + SINGLE_PET_OPERATIONS);
+
+        final int catalogRows = rows + WARM_UP_OPERATIONS + SINGLE_PET_OPERATIONS;
+        Benchmark.Result scan = Benchmark.measure("full catalog scan", CATALOG_SCANS,
+                new Benchmark.Operation() {
+                    @Override
+                    void run(int index) {
+                        Cursor cursor = mProvider.query(CONTENT_URI, CATALOG_PROJECTION, null,
+                                null, null);
+                        try {
+                            int count = 0;
+                            while (cursor.moveToNext()) {
+                                cursor.getLong(0);
+                                cursor.getString(1);
+                                cursor.getString(2);
+                                cursor.getLong(3);
+                                count++;
+                            }
+                            assertEquals(catalogRows, count);
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                });
+        reportPerRow("full catalog scan", scan, (long) CATALOG_SCANS * catalogRows);
+
+        final int updates = Math.max(1, Math.min(SINGLE_PET_OPERATIONS, rows / UPDATE_SELECTION_ROWS));
+        Benchmark.Result update = Benchmark.measure("update by selection of "
+                + UPDATE_SELECTION_ROWS, updates, new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                long from = firstId + (long) index * UPDATE_SELECTION_ROWS;
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PET_WEIGHT, index % 60);
+                mProvider.update(CONTENT_URI, values, _ID + ">=? AND " + _ID + "<?",
+                        new String[] {String.valueOf(from),
+                                String.valueOf(from + UPDATE_SELECTION_ROWS)});
+            }
+        });
+        reportPerRow("update by selection", update, (long) updates * UPDATE_SELECTION_ROWS);
+
+        final int[] deleted = new int[1];
+        Benchmark.Result deleteAll = Benchmark.measure("delete all", 1, new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                deleted[0] = mProvider.delete(CONTENT_URI, null, null);
+            }
+        });
+        reportPerRow("delete all", deleteAll, deleted[0]);
+    }
+
+    /**
+     * Print the rows per second and allocation per row of operations that each write or read
+     * many rows.
+     */
+    private static void reportPerRow(String name, Benchmark.Result result, long rows) {
+        Benchmark.report(String.format(Locale.US, "    %-36s %12.1f rows/s   %8d B/row",
+                name, rows * 1e9 / Math.max(result.elapsedNanos, 1),
+                result.allocatedBytes < 0 ? -1 : result.allocatedBytes / Math.max(rows, 1)));
+    }
+
+    /**
+     * Returns the smallest _ID in the table. The bulk insert gives the pets consecutive _IDs
+     * from there.
+     */
+    private long findFirstId() {
+        Uri uri = CONTENT_URI.buildUpon().appendQueryParameter(QUERY_PARAMETER_LIMIT, "1").build();
+        Cursor cursor = mProvider.query(uri, new String[] {_ID}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Put the values of the pet with the given number into the content values.
+     */
+    static void fillPet(ContentValues values, int number) {
+        values.put(COLUMN_PET_NAME, "Pet " + number);
+        values.put(COLUMN_PET_BREED, BREEDS[number % BREEDS.length]);
+        values.put(COLUMN_PET_GENDER, number % 3);
+        values.put(COLUMN_PET_WEIGHT, number % 60);
+    }
+}
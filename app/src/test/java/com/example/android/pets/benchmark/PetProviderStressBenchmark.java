@@ -0,0 +1,50 @@
+package com.example.android.pets.benchmark;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetProviderStress;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Runs writers and readers of the pet provider on many threads at once, through
+ * {@link PetProviderStress}, at growing thread counts, and reports the throughput and latency of
+ * the writes and reads at every count. PetProviderConcurrencyTest runs the same checks at a few
+ * threads with the other tests.
+ *
+ * Robolectric runs the SQLite calls on a thread of its own, so the numbers compare thread counts
+ * with each other, not with a device.
+ *
+ * Run with "gradlew testDebugUnitTest -Pbenchmark --tests '*PetProviderStressBenchmark'".
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetProviderStressBenchmark {
+
+    /** Number of writers, and of readers, of every run */
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    /** Number of writes of every writer */
+    private static final int WRITES_PER_WRITER = 1000;
+
+    private PetProviderStress mStress;
+
+    @Before
+    public void setUp() {
+        mStress = new PetProviderStress(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void concurrentWritersAndReaders() throws Exception {
+        for (int threads : THREAD_COUNTS) {
+            PetProviderStress.Run run = mStress.run(threads, WRITES_PER_WRITER);
+            Benchmark.report("--- " + threads + " writers and " + threads + " readers");
+            Benchmark.latencies("writes", run.writeLatencyNanos, run.elapsedNanos);
+            Benchmark.latencies("reads", run.readLatencyNanos, run.elapsedNanos);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetDbHelper;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.android.pets.data.PetDbHelper.PETS_VIEW_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+
+/**
+ * Measures the latency of reading the first page of the catalog while another thread keeps
+ * writing pets, with write-ahead logging and with the rollback journal of
+ * {@link PetDbHelper.Settings#writeAheadLogging}. The reads are measured on their own first.
+ *
+ * Without write-ahead logging the database has a single connection, and a read waits for the
+ * whole transaction of the writer. With it the read runs on a connection of its own. Robolectric
+ * runs the SQLite calls of every connection on one thread, so a read still waits for the
+ * statement that is running, which a device doesn't. The allocation includes the writer.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class ReaderLatencyBenchmark {
+
+    /** Pets in the table before the reads start */
+    private static final int SEED_ROWS = 10000;
+
+    /** Pets written by every transaction of the writer */
+    private static final int WRITE_TRANSACTION_ROWS = 50;
+
+    /** Number of reads measured */
+    private static final int READS = 2000;
+
+    /** Rows read by every read, a page of the catalog */
+    private static final String PAGE_ROWS = "50";
+
+    private static final String[] PAGE_PROJECTION = {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED};
+
+    private PetDbHelper mDbHelper;
+
+    @After
+    public void tearDown() {
+        if (mDbHelper != null) {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void readerLatencyWithWriteAheadLogging() throws Exception {
+        measureReads(true);
+    }
+
+    @Test
+    public void readerLatencyWithRollbackJournal() throws Exception {
+        measureReads(false);
+    }
+
+    /**
+     * Measure the reads of a database opened with or without write-ahead logging, without and
+     * then with a writer running.
+     */
+    private void measureReads(boolean writeAheadLogging) throws Exception {
+        PetDbHelper.Settings settings = new PetDbHelper.Settings();
+        settings.writeAheadLogging = writeAheadLogging;
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application, settings);
+        final SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        String mode = writeAheadLogging ? "WAL" : "rollback journal";
+        Benchmark.report("--- Reads of a page with " + mode);
+
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < SEED_ROWS; i++) {
+                database.insert(TABLE_NAME, null, newPet(i));
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        Benchmark.Operation read = new Benchmark.Operation() {
+            @Override
+            void run(int index) {
+                Cursor cursor = database.query(PETS_VIEW_NAME, PAGE_PROJECTION, null, null,
+                        null, null, _ID + " ASC", PAGE_ROWS);
+                try {
+                    cursor.moveToLast();
+                } finally {
+                    cursor.close();
+                }
+            }
+        };
+        Benchmark.warmUp(READS / 10, read);
+        Benchmark.measure("read, " + mode + ", no writes", READS, read);
+
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger writtenRows = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int number = SEED_ROWS;
+                while (!stop.get()) {
+                    database.beginTransaction();
+                    try {
+                        for (int i = 0; i < WRITE_TRANSACTION_ROWS; i++) {
+                            database.insert(TABLE_NAME, null, newPet(number++));
+                        }
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                    }
+                    writtenRows.addAndGet(WRITE_TRANSACTION_ROWS);
+                }
+            }
+        }, "PetWriter");
+        writer.start();
+        long startNanos = System.nanoTime();
+        try {
+            Benchmark.measure("read, " + mode + ", while writing", READS, read);
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        Benchmark.report("    writer committed " + writtenRows.get() * 1000000000L / elapsedNanos
+                + " rows/s meanwhile");
+    }
+
+    private static ContentValues newPet(int number) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PET_NAME, "Pet " + number);
+        values.put(COLUMN_PET_GENDER, number % 3);
+        values.put(COLUMN_PET_WEIGHT, number % 60);
+        return values;
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry.NO_PHOTO;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that a single pet read through the pet cache of {@link PetProvider} has every column of
+ * the pets, like a pet read from the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetCacheTest {
+
+    private PetProvider mProvider;
+    private Uri mPetUri;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PET_NAME, "Toto");
+        values.put(COLUMN_PET_GENDER, 1);
+        values.put(COLUMN_PET_WEIGHT, 7);
+        mPetUri = mProvider.insert(CONTENT_URI, values);
+    }
+
+    @Test
+    public void allColumnsIncludeThePhotoVersion() {
+        Cursor cursor = mProvider.query(mPetUri, null, null, null, null);
+        try {
+            assertTrue(Arrays.toString(cursor.getColumnNames()),
+                    Arrays.asList(cursor.getColumnNames()).contains(COLUMN_PET_PHOTO_VERSION));
+            assertTrue(cursor.moveToFirst());
+            assertEquals(NO_PHOTO, cursor.getLong(cursor.getColumnIndex(COLUMN_PET_PHOTO_VERSION)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void photoVersionIsReadFromTheCache() {
+        String[] projection = {_ID, COLUMN_PET_PHOTO_VERSION};
+        readPet(projection);
+        int hits = mProvider.getCacheHitCount();
+        readPet(projection);
+        assertEquals(hits + 1, mProvider.getCacheHitCount());
+    }
+
+    private void readPet(String[] projection) {
+        Cursor cursor = mProvider.query(mPetUri, projection, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(ContentUris.parseId(mPetUri), cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.example.android.pets.data.PetDbHelper.BREEDS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_BREED_NAME;
+import static com.example.android.pets.data.PetDbHelper.COLUMN_PET_BREED_ID;
+import static com.example.android.pets.data.PetDbHelper.DATABASE_VERSION;
+import static com.example.android.pets.data.PetDbHelper.FIRST_DATABASE_VERSION;
+import static com.example.android.pets.data.PetDbHelper.FTS_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.INDEX_PET_BREED;
+import static com.example.android.pets.data.PetDbHelper.INDEX_PET_GENDER;
+import static com.example.android.pets.data.PetDbHelper.INDEX_PET_GENDER_NAME;
+import static com.example.android.pets.data.PetDbHelper.INDEX_PET_GENDER_WEIGHT;
+import static com.example.android.pets.data.PetDbHelper.INDEX_PET_NAME;
+import static com.example.android.pets.data.PetDbHelper.INDEX_PET_WEIGHT;
+import static com.example.android.pets.data.PetDbHelper.PETS_VIEW_NAME;
+import static com.example.android.pets.data.PetDbHelper.STATS_BREED_TABLE_NAME;
+import static com.example.android.pets.data.PetDbHelper.STATS_GENDER_TABLE_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_PET_COUNT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the migrations of {@link PetDbHelper}: a database of every older version, holding pets,
+ * is upgraded to the current version without losing or changing a pet. Also checks that the
+ * lookups the indexes were added for use them.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetDbHelperTest {
+
+    /** Number of pets in the old databases, the last one is deleted before the upgrade */
+    private static final int PETS = 30;
+
+    /** Breeds of the pets, in turn. Before version 5 a pet could have an empty breed. */
+    private static final String[] BREEDS = {"Beagle", "Siamese", "", null, "Poodle"};
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mDbHelper = new PetDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void upgradeFromEveryVersionKeepsThePets() {
+        for (int version = FIRST_DATABASE_VERSION; version < DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(mDbHelper.getDatabaseName());
+            List<ContentValues> pets = createDatabase(version);
+
+            mDbHelper = new PetDbHelper(mContext);
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            String from = "Upgrade from version " + version + ": ";
+            assertEquals(from + "version", DATABASE_VERSION, db.getVersion());
+            assertPets(from, db, pets);
+            assertIndexes(from, db);
+            assertStats(from, db);
+            assertEquals(from + "search rows", pets.size(),
+                    DatabaseUtils.queryNumEntries(db, FTS_TABLE_NAME));
+
+            // The _ID of the deleted last pet is not handed out again
+            ContentValues pet = new ContentValues();
+            pet.put(COLUMN_PET_NAME, "New");
+            pet.put(COLUMN_PET_GENDER, 0);
+            pet.put(COLUMN_PET_WEIGHT, 1);
+            assertEquals(from + "new _ID", PETS + 1, db.insert(TABLE_NAME, null, pet));
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void newDatabaseHasTheIndexes() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(DATABASE_VERSION, db.getVersion());
+        assertIndexes("New database: ", db);
+    }
+
+    @Test
+    public void lookupsUseTheirIndexes() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        for (int i = 0; i < 200; i++) {
+            db.insert(TABLE_NAME, null, newPet(i, null));
+        }
+
+        assertUsesIndex(db, INDEX_PET_NAME, "SELECT " + _ID + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_PET_NAME + " = ? COLLATE NOCASE", "pet 7");
+        assertUsesIndex(db, INDEX_PET_BREED, "SELECT " + _ID + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_PET_BREED_ID + " = ?", "1");
+        assertUsesIndex(db, INDEX_PET_GENDER_WEIGHT, "SELECT " + _ID + " FROM " + TABLE_NAME
+                + " WHERE " + COLUMN_PET_GENDER + " = ? AND " + COLUMN_PET_WEIGHT + " > ?", "1", "10");
+        assertUsesIndex(db, INDEX_PET_NAME, "SELECT " + _ID + " FROM " + PETS_VIEW_NAME
+                + " ORDER BY " + COLUMN_PET_NAME + " COLLATE NOCASE LIMIT 50");
+    }
+
+    /**
+     * Create a database of the given version, as the app of that version left it, holding
+     * {@link #PETS} pets of which the last one was deleted. Returns the pets that are left.
+     */
+    private List<ContentValues> createDatabase(int version) {
+        File path = mContext.getDatabasePath(mDbHelper.getDatabaseName());
+        path.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(path, null);
+        List<ContentValues> pets = new ArrayList<>();
+        try {
+            // The schema of version 1, then the migrations up to the version
+            db.execSQL("CREATE TABLE " + TABLE_NAME + "(" + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + COLUMN_PET_NAME + " TEXT NOT NULL, "
+                    + COLUMN_PET_BREED + " TEXT, "
+                    + COLUMN_PET_GENDER + " INTEGER NOT NULL, "
+                    + COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0);");
+            mDbHelper.onUpgrade(db, FIRST_DATABASE_VERSION, version);
+
+            for (int i = 0; i < PETS; i++) {
+                String breed = BREEDS[i % BREEDS.length];
+                ContentValues pet = newPet(i, breed);
+                if (version >= 5) {
+                    // Breeds are kept in their own table, and a pet has a breed or none
+                    pet.remove(COLUMN_PET_BREED);
+                    if (!TextUtils.isEmpty(breed)) {
+                        ContentValues breedRow = new ContentValues();
+                        breedRow.put(COLUMN_BREED_NAME, breed);
+                        db.insertWithOnConflict(BREEDS_TABLE_NAME, null, breedRow,
+                                SQLiteDatabase.CONFLICT_IGNORE);
+                        pet.put(COLUMN_PET_BREED_ID, DatabaseUtils.longForQuery(db,
+                                "SELECT " + _ID + " FROM " + BREEDS_TABLE_NAME
+                                        + " WHERE " + COLUMN_BREED_NAME + " = ?", new String[] {breed}));
+                    }
+                }
+                db.insert(TABLE_NAME, null, pet);
+                // The pet as the current version shows it
+                ContentValues shown = newPet(i, TextUtils.isEmpty(breed) ? null : breed);
+                shown.put(_ID, i + 1);
+                pets.add(shown);
+            }
+            db.delete(TABLE_NAME, _ID + " = ?", new String[] {String.valueOf(PETS)});
+            pets.remove(pets.size() - 1);
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+        return pets;
+    }
+
+    private static ContentValues newPet(int number, String breed) {
+        ContentValues pet = new ContentValues();
+        pet.put(COLUMN_PET_NAME, "Pet " + number);
+        if (breed != null) {
+            pet.put(COLUMN_PET_BREED, breed);
+        }
+        pet.put(COLUMN_PET_GENDER, number % 3);
+        pet.put(COLUMN_PET_WEIGHT, number * 2);
+        return pet;
+    }
+
+    /**
+     * Check that the database shows exactly the given pets.
+     */
+    private static void assertPets(String message, SQLiteDatabase db, List<ContentValues> pets) {
+        Cursor cursor = db.query(PETS_VIEW_NAME, new String[] {_ID, COLUMN_PET_NAME,
+                COLUMN_PET_BREED, COLUMN_PET_GENDER, COLUMN_PET_WEIGHT}, null, null, null, null,
+                _ID + " ASC");
+        try {
+            assertEquals(message + "pets", pets.size(), cursor.getCount());
+            for (ContentValues pet : pets) {
+                cursor.moveToNext();
+                ContentValues row = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, row);
+                assertEquals(message + "pet", pet.getAsLong(_ID), row.getAsLong(_ID));
+                assertEquals(message + "name", pet.getAsString(COLUMN_PET_NAME), row.getAsString(COLUMN_PET_NAME));
+                assertEquals(message + "breed", pet.getAsString(COLUMN_PET_BREED), row.getAsString(COLUMN_PET_BREED));
+                assertEquals(message + "gender", pet.getAsInteger(COLUMN_PET_GENDER), row.getAsInteger(COLUMN_PET_GENDER));
+                assertEquals(message + "weight", pet.getAsInteger(COLUMN_PET_WEIGHT), row.getAsInteger(COLUMN_PET_WEIGHT));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Check that every index of the pets table exists.
+     */
+    private static void assertIndexes(String message, SQLiteDatabase db) {
+        for (String index : new String[] {INDEX_PET_NAME, INDEX_PET_BREED, INDEX_PET_GENDER_WEIGHT,
+                INDEX_PET_WEIGHT, INDEX_PET_GENDER_NAME, INDEX_PET_GENDER}) {
+            assertEquals(message + index, 1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                    new String[] {index}));
+        }
+    }
+
+    /**
+     * Check that the summary tables hold the counts of the pets table.
+     */
+    private static void assertStats(String message, SQLiteDatabase db) {
+        assertEquals(message + "gender stats", queryRows(db, "SELECT " + COLUMN_PET_GENDER + ", COUNT(*), SUM("
+                        + COLUMN_PET_WEIGHT + ") FROM " + TABLE_NAME + " GROUP BY 1 ORDER BY 1"),
+                queryRows(db, "SELECT " + COLUMN_PET_GENDER + ", " + COLUMN_PET_COUNT + ", "
+                        + COLUMN_TOTAL_WEIGHT + " FROM " + STATS_GENDER_TABLE_NAME
+                        + " WHERE " + COLUMN_PET_COUNT + " > 0 ORDER BY 1"));
+        assertEquals(message + "breed stats", queryRows(db, "SELECT IFNULL(" + COLUMN_PET_BREED_ID
+                        + ", 0), COUNT(*) FROM " + TABLE_NAME + " GROUP BY 1 ORDER BY 1"),
+                queryRows(db, "SELECT " + COLUMN_PET_BREED_ID + ", " + COLUMN_PET_COUNT
+                        + " FROM " + STATS_BREED_TABLE_NAME + " ORDER BY 1"));
+    }
+
+    /**
+     * Returns the rows of the query, every row as its columns joined by commas.
+     */
+    static List<String> queryRows(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            List<String> rows = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(i == 0 ? "" : ",").append(cursor.getString(i));
+                }
+                rows.add(row.toString());
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertUsesIndex(SQLiteDatabase db, String index, String sql, String... args) {
+        String plan = QueryPlan.explain(db, sql, args);
+        assertTrue(sql + " uses " + plan,
+                Pattern.compile("INDEX " + index + "\\b").matcher(plan).find());
+    }
+}
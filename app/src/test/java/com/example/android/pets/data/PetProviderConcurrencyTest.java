@@ -0,0 +1,39 @@
+package com.example.android.pets.data;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+/**
+ * Tests that {@link PetProvider} loses no update, caches no stale pet and notifies every write
+ * while writers and readers use it at the same time. See {@link PetProviderStress} for the checks.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetProviderConcurrencyTest {
+
+    /** Few enough writes to keep the test quick, enough for the threads to overlap */
+    private static final int WRITES_PER_WRITER = 200;
+
+    private PetProviderStress mStress;
+
+    @Before
+    public void setUp() {
+        mStress = new PetProviderStress(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void singleWriterAndReader() throws Exception {
+        mStress.run(1, WRITES_PER_WRITER);
+    }
+
+    @Test
+    public void concurrentWritersAndReaders() throws Exception {
+        mStress.run(4, WRITES_PER_WRITER);
+    }
+}
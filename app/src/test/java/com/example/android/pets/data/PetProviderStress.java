@@ -0,0 +1,491 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_PET_COUNT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_STAT_TYPE;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.TYPE_ALL;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs writers and readers of {@link PetProvider} on many threads at once, with as many readers
+ * as writers, and checks that the provider stays consistent. Used by PetProviderConcurrencyTest
+ * at a few threads, and by PetProviderStressBenchmark, which reports the throughput and latency
+ * as the number of threads grows.
+ *
+ * Every writer inserts, updates and deletes only its own pets, through every write path of the
+ * provider, and keeps what it expects them to hold. When the writers are done, the pets must be
+ * exactly the expected ones, read from the table and through the pet cache, and the statistics
+ * must match them, so no update was lost and no stale pet was cached. Every write must also
+ * notify the rows it changed before it returns. The readers check that every page they read is in
+ * _ID order and that every pet they read is one a writer wrote.
+ *
+ * Robolectric runs the SQLite calls on a thread of its own, so the threads only overlap in the
+ * provider and the database classes.
+ */
+public final class PetProviderStress {
+
+    /**
+     * The latency of every write and read of a run, and how long the run took.
+     */
+    public static final class Run {
+        public final List<Long> writeLatencyNanos;
+        public final List<Long> readLatencyNanos;
+        public final long elapsedNanos;
+
+        Run(List<Long> writeLatencyNanos, List<Long> readLatencyNanos, long elapsedNanos) {
+            this.writeLatencyNanos = writeLatencyNanos;
+            this.readLatencyNanos = readLatencyNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    /** Every pet name starts with this, so readers can tell a pet from garbage */
+    private static final String NAME_PREFIX = "Stress ";
+
+    /** Breeds of the writers, a pet without a breed reads back as null */
+    private static final String[] BREEDS = {"Beagle", "Siamese", "Poodle", null};
+
+    /** A page of the catalog as the readers read it */
+    private static final Uri PAGE_URI = CONTENT_URI.buildUpon()
+            .appendQueryParameter(QUERY_PARAMETER_LIMIT, "100").build();
+
+    private static final String[] PET_PROJECTION =
+            {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_GENDER, COLUMN_PET_WEIGHT};
+
+    private final RecordingResolver mResolver;
+    private final PetProvider mProvider;
+
+    /** Highest _ID inserted so far, the readers pick pets up to it */
+    private final AtomicLong mLastId = new AtomicLong();
+
+    /**
+     * Creates a provider of the pets in the database of the given context.
+     */
+    public PetProviderStress(Context baseContext) {
+        // The provider gets a resolver that records the notifications, instead of the one of
+        // Robolectric, which is not thread safe
+        mResolver = new RecordingResolver(baseContext);
+        Context context = new ContextWrapper(baseContext) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return mResolver;
+            }
+        };
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetsContract.CONTENT_AUTHORITY;
+        mProvider = new PetProvider();
+        mProvider.attachInfo(context, info);
+    }
+
+    /**
+     * Run the given number of writers and readers against an empty catalog, then check the pets
+     * the writers leave behind. Throws an {@link AssertionError} if the provider wasn't
+     * consistent.
+     */
+    public Run run(int threads, final int writesPerWriter) throws Exception {
+        mProvider.delete(CONTENT_URI, null, null);
+        mResolver.takeNotifications();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writersDone = new AtomicBoolean();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final List<Long> writeLatencies =
+                Collections.synchronizedList(new ArrayList<Long>(threads * writesPerWriter));
+        final List<Long> readLatencies =
+                Collections.synchronizedList(new ArrayList<Long>(threads * writesPerWriter));
+        final List<Writer> writers = new ArrayList<>();
+        List<Thread> writerThreads = new ArrayList<>();
+        List<Thread> readerThreads = new ArrayList<>();
+
+        for (int i = 0; i < threads; i++) {
+            final Writer writer = new Writer(i);
+            writers.add(writer);
+            writerThreads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int write = 0; write < writesPerWriter; write++) {
+                            long startNanos = System.nanoTime();
+                            writer.write();
+                            writeLatencies.add(System.nanoTime() - startNanos);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            }, "StressWriter" + i));
+
+            final Random random = new Random(1000 + i);
+            readerThreads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        while (!writersDone.get()) {
+                            long startNanos = System.nanoTime();
+                            read(random);
+                            readLatencies.add(System.nanoTime() - startNanos);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            }, "StressReader" + i));
+        }
+
+        for (Thread thread : writerThreads) {
+            thread.start();
+        }
+        for (Thread thread : readerThreads) {
+            thread.start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread thread : writerThreads) {
+            thread.join();
+        }
+        writersDone.set(true);
+        for (Thread thread : readerThreads) {
+            thread.join();
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(threads + " writers and readers failed", failures.get(0));
+        }
+
+        Map<Long, String> expected = new TreeMap<>();
+        long totalWeight = 0;
+        for (Writer writer : writers) {
+            for (Map.Entry<Long, ContentValues> pet : writer.mPets.entrySet()) {
+                expected.put(pet.getKey(), describe(pet.getValue()));
+                totalWeight += pet.getValue().getAsInteger(COLUMN_PET_WEIGHT);
+            }
+        }
+        assertEquals("Pets in the table", expected, readAllPets());
+        for (Map.Entry<Long, String> pet : expected.entrySet()) {
+            assertEquals("Pet through the cache", pet.getValue(), readPet(pet.getKey()));
+        }
+        assertEquals("Stats", expected.size() + "," + totalWeight, readTotalStats());
+        return new Run(writeLatencies, readLatencies, elapsedNanos);
+    }
+
+    /**
+     * Read a page of the catalog, a single pet that may be gone already, or the statistics.
+     */
+    private void read(Random random) {
+        int read = random.nextInt(10);
+        if (read < 4) {
+            Cursor cursor = mProvider.query(PAGE_URI, PET_PROJECTION, null, null, null);
+            try {
+                long lastId = 0;
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    assertTrue("Page out of _ID order at " + id, id > lastId);
+                    assertTrue("Unknown pet " + id, cursor.getString(1).startsWith(NAME_PREFIX));
+                    lastId = id;
+                }
+            } finally {
+                cursor.close();
+            }
+        } else if (read < 9) {
+            long id = 1 + (long) random.nextInt((int) mLastId.get() + 1);
+            String pet = readPet(id);
+            assertTrue("Unknown pet " + id + ": " + pet, pet == null || pet.startsWith(NAME_PREFIX));
+        } else {
+            readTotalStats();
+        }
+    }
+
+    /**
+     * A writer of the pets it inserted itself, which keeps what every one of them holds.
+     */
+    private class Writer {
+
+        private final int mNumber;
+        private final Random mRandom;
+
+        /** The pets of this writer that weren't deleted, keyed by _ID */
+        final Map<Long, ContentValues> mPets = new HashMap<>();
+
+        /** _IDs of the pets, to pick them at random */
+        private final List<Long> mIds = new ArrayList<>();
+
+        /** Counts the names handed out, so every name is unique */
+        private int mNames;
+
+        Writer(int number) {
+            mNumber = number;
+            mRandom = new Random(number);
+        }
+
+        /**
+         * Run one write picked at random, through one of the write paths of the provider, and
+         * check that it changed and notified the pets it should have.
+         */
+        void write() throws Exception {
+            int write = mIds.isEmpty() ? 0 : mRandom.nextInt(100);
+            if (write < 25) {
+                ContentValues pet = newPet();
+                long id = ContentUris.parseId(mProvider.insert(CONTENT_URI, pet));
+                add(id, pet);
+                assertNotified(id);
+            } else if (write < 30) {
+                ContentValues[] pets = new ContentValues[1 + mRandom.nextInt(20)];
+                for (int i = 0; i < pets.length; i++) {
+                    pets[i] = newPet();
+                }
+                assertEquals(pets.length, mProvider.bulkInsert(CONTENT_URI, pets));
+                List<Long> ids = new ArrayList<>();
+                for (ContentValues pet : pets) {
+                    long id = findId(pet.getAsString(COLUMN_PET_NAME));
+                    add(id, pet);
+                    ids.add(id);
+                }
+                assertNotified(ids.toArray(new Long[ids.size()]));
+            } else if (write < 50) {
+                // All the columns, through the compiled statement
+                long id = pickId();
+                ContentValues pet = newPet();
+                assertEquals(1, mProvider.update(petUri(id), pet, null, null));
+                mPets.put(id, pet);
+                assertNotified(id);
+            } else if (write < 65) {
+                long id = pickId();
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+                assertEquals(1, mProvider.update(petUri(id), values, null, null));
+                mPets.get(id).putAll(values);
+                assertNotified(id);
+            } else if (write < 72) {
+                // Through a selection, which finds the changed rows for the notifications
+                long id = pickId();
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PET_BREED, randomBreed());
+                values.put(COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+                assertEquals(1, mProvider.update(CONTENT_URI, values, COLUMN_PET_NAME + "=?",
+                        new String[] {mPets.get(id).getAsString(COLUMN_PET_NAME)}));
+                mPets.get(id).putAll(values);
+                assertNotified(id);
+            } else if (write < 85) {
+                long id = pickId();
+                assertEquals(1, mProvider.delete(petUri(id), null, null));
+                remove(id);
+                assertNotified(id);
+            } else if (write < 90) {
+                long id = pickId();
+                assertEquals(1, mProvider.delete(CONTENT_URI, COLUMN_PET_NAME + "=?",
+                        new String[] {mPets.get(id).getAsString(COLUMN_PET_NAME)}));
+                remove(id);
+                assertNotified(id);
+            } else {
+                // A batch that changes one pet and adds another
+                long id = pickId();
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_PET_GENDER, mRandom.nextInt(3));
+                ContentValues pet = newPet();
+                ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+                batch.add(ContentProviderOperation.newUpdate(petUri(id)).withValues(values).build());
+                batch.add(ContentProviderOperation.newInsert(CONTENT_URI).withValues(pet).build());
+                ContentProviderResult[] results = mProvider.applyBatch(batch);
+                assertEquals(Integer.valueOf(1), results[0].count);
+                long newId = ContentUris.parseId(results[1].uri);
+                mPets.get(id).putAll(values);
+                add(newId, pet);
+                assertNotified(id, newId);
+            }
+        }
+
+        private ContentValues newPet() {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PET_NAME, NAME_PREFIX + mNumber + "-" + mNames++);
+            values.put(COLUMN_PET_BREED, randomBreed());
+            values.put(COLUMN_PET_GENDER, mRandom.nextInt(3));
+            values.put(COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+            return values;
+        }
+
+        private String randomBreed() {
+            return BREEDS[mRandom.nextInt(BREEDS.length)];
+        }
+
+        private long pickId() {
+            return mIds.get(mRandom.nextInt(mIds.size()));
+        }
+
+        private void add(long id, ContentValues pet) {
+            mPets.put(id, pet);
+            mIds.add(id);
+            while (true) {
+                long lastId = mLastId.get();
+                if (id <= lastId || mLastId.compareAndSet(lastId, id)) {
+                    break;
+                }
+            }
+        }
+
+        private void remove(long id) {
+            mPets.remove(id);
+            mIds.remove(Long.valueOf(id));
+        }
+
+        /**
+         * Check that the last write notified each of the given pets, or the whole table, on
+         * this thread before it returned.
+         */
+        private void assertNotified(Long... ids) {
+            Set<Uri> notified = mResolver.takeNotifications();
+            if (notified.contains(CONTENT_URI)) {
+                return;
+            }
+            for (long id : ids) {
+                if (!notified.contains(petUri(id))) {
+                    fail("Pet " + id + " was changed without a notification, got " + notified);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the _ID of the pet with the given name, which is unique.
+     */
+    private long findId(String name) {
+        Cursor cursor = mProvider.query(CONTENT_URI, new String[] {_ID}, COLUMN_PET_NAME + "=?",
+                new String[] {name}, null);
+        try {
+            assertEquals("Pets named " + name, 1, cursor.getCount());
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns every pet of the table, keyed by _ID, as described by {@link #describe}.
+     */
+    private Map<Long, String> readAllPets() {
+        Map<Long, String> pets = new TreeMap<>();
+        Cursor cursor = mProvider.query(CONTENT_URI, PET_PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                pets.put(cursor.getLong(0), describe(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return pets;
+    }
+
+    /**
+     * Returns the pet with the given _ID, read by its URI and so through the pet cache, or null
+     * if there is no such pet.
+     */
+    private String readPet(long id) {
+        Cursor cursor = mProvider.query(petUri(id), PET_PROJECTION, null, null, null);
+        try {
+            return cursor.moveToFirst() ? describe(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the number of pets and their total weight from the statistics, as "count,weight".
+     */
+    private String readTotalStats() {
+        Cursor cursor = mProvider.query(PetsContract.PetStatsEntry.CONTENT_URI,
+                new String[] {COLUMN_STAT_TYPE, COLUMN_PET_COUNT, COLUMN_TOTAL_WEIGHT}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (TYPE_ALL.equals(cursor.getString(0))) {
+                    return cursor.getLong(1) + "," + cursor.getLong(2);
+                }
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(CONTENT_URI, id);
+    }
+
+    private static String describe(ContentValues pet) {
+        return pet.getAsString(COLUMN_PET_NAME) + "|" + pet.getAsString(COLUMN_PET_BREED) + "|"
+                + pet.getAsInteger(COLUMN_PET_GENDER) + "|" + pet.getAsInteger(COLUMN_PET_WEIGHT);
+    }
+
+    /** The same as {@link #describe(ContentValues)}, for a row read with PET_PROJECTION */
+    private static String describe(Cursor cursor) {
+        return cursor.getString(1) + "|" + cursor.getString(2) + "|" + cursor.getInt(3) + "|"
+                + cursor.getInt(4);
+    }
+
+    /**
+     * Records the notifications of every thread, to check them on the thread that sent them.
+     */
+    private static class RecordingResolver extends ContentResolver {
+
+        private final ThreadLocal<Set<Uri>> mNotifiedUris = new ThreadLocal<Set<Uri>>() {
+            @Override
+            protected Set<Uri> initialValue() {
+                return new HashSet<>();
+            }
+        };
+
+        RecordingResolver(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer) {
+            mNotifiedUris.get().add(uri);
+        }
+
+        /**
+         * Returns the URIs notified on the calling thread since the last call, and forgets them.
+         */
+        Set<Uri> takeNotifications() {
+            Set<Uri> notified = new HashSet<>(mNotifiedUris.get());
+            mNotifiedUris.get().clear();
+            return notified;
+        }
+    }
+}
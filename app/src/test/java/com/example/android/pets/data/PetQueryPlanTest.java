@@ -0,0 +1,153 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_PHOTO_VERSION;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetEntry.TABLE_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry._ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_AFTER_ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_AFTER_KEY;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_GENDER;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_MAX_WEIGHT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_MIN_WEIGHT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_NAME_PREFIX;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_SORT;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_UNTIL_ID;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_UNTIL_KEY;
+import static com.example.android.pets.data.PetsContract.SORT_NAME;
+import static com.example.android.pets.data.PetsContract.SORT_NEWEST;
+import static com.example.android.pets.data.PetsContract.SORT_WEIGHT;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Tests that every filter and sort order of the pets URI reads the pets in order from an index,
+ * or from the table in _id order, so SQLite never sorts the matching pets into a temporary
+ * B-tree. The plans are checked on a table of {@link #PETS} pets, with and without the
+ * statistics of ANALYZE, which SQLite can pick other indexes with.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetQueryPlanTest {
+
+    private static final int PETS = 20000;
+
+    /** Columns read by the catalog */
+    private static final String[] CATALOG_PROJECTION =
+            {_ID, COLUMN_PET_NAME, COLUMN_PET_BREED, COLUMN_PET_PHOTO_VERSION, COLUMN_PET_WEIGHT};
+
+    private static final String[] SORTS = {null, SORT_NAME, SORT_WEIGHT, SORT_NEWEST};
+
+    private PetDbHelper mDbHelper;
+    private SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mDbHelper = new PetDbHelper(RuntimeEnvironment.application);
+        mDatabase = mDbHelper.getWritableDatabase();
+        Random random = new Random(24);
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < PETS; i++) {
+                ContentValues pet = new ContentValues();
+                StringBuilder name = new StringBuilder();
+                for (int letter = 0; letter < 6; letter++) {
+                    char first = random.nextBoolean() ? 'a' : 'A';
+                    name.append((char) (first + random.nextInt(26)));
+                }
+                pet.put(COLUMN_PET_NAME, name.toString());
+                pet.put(COLUMN_PET_GENDER, random.nextInt(3));
+                pet.put(COLUMN_PET_WEIGHT, 1 + random.nextInt(60));
+                mDatabase.insert(TABLE_NAME, null, pet);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void noShapeSortsInATempBTree() {
+        assertNoTempBTree();
+    }
+
+    @Test
+    public void noShapeSortsInATempBTreeAfterAnalyze() {
+        mDatabase.execSQL("ANALYZE");
+        assertNoTempBTree();
+    }
+
+    /**
+     * Check the plan of a page of every combination of sort order, gender, weight range, name
+     * prefix and page bound.
+     */
+    private void assertNoTempBTree() {
+        for (String sort : SORTS) {
+            for (int shape = 0; shape < 16; shape++) {
+                for (int bound = 0; bound < 3; bound++) {
+                    Uri.Builder uri = CONTENT_URI.buildUpon()
+                            .appendQueryParameter(QUERY_PARAMETER_LIMIT, "50");
+                    if (sort != null) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_SORT, sort);
+                    }
+                    if ((shape & 1) != 0) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_GENDER, "1");
+                    }
+                    if ((shape & 2) != 0) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_MIN_WEIGHT, "5");
+                    }
+                    if ((shape & 4) != 0) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_MAX_WEIGHT, "20");
+                    }
+                    if ((shape & 8) != 0) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_NAME_PREFIX, "Ab");
+                    }
+                    // The key of the pet a page starts after or ends with, when sorted by a key
+                    String key = SORT_NAME.equals(sort) ? "m" : "10";
+                    if (bound == 1) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_AFTER_ID, "1000");
+                        uri.appendQueryParameter(QUERY_PARAMETER_AFTER_KEY, key);
+                    } else if (bound == 2) {
+                        uri.appendQueryParameter(QUERY_PARAMETER_UNTIL_ID, "1000");
+                        uri.appendQueryParameter(QUERY_PARAMETER_UNTIL_KEY, key);
+                    }
+
+                    Uri petsUri = uri.build();
+                    List<String> args = new ArrayList<>();
+                    String sql = PetProvider.buildPetsQuery(petsUri, CATALOG_PROJECTION, null,
+                            null, null, args);
+                    String plan = QueryPlan.explain(mDatabase, sql,
+                            args.toArray(new String[args.size()]));
+                    assertFalse(petsUri + " sorts in a temp B-tree:\n" + plan,
+                            plan.contains("TEMP B-TREE"));
+                }
+            }
+        }
+    }
+}
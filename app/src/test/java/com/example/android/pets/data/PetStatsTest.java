@@ -0,0 +1,216 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_BREED;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_GENDER;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_NAME;
+import static com.example.android.pets.data.PetsContract.PetEntry.COLUMN_PET_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetEntry.CONTENT_URI;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_PET_COUNT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_STAT_KEY;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_STAT_TYPE;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.COLUMN_TOTAL_WEIGHT;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.TYPE_ALL;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.TYPE_BREED;
+import static com.example.android.pets.data.PetsContract.PetStatsEntry.TYPE_GENDER;
+import static com.example.android.pets.data.PetsContract.QUERY_PARAMETER_LIMIT;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the statistics kept up to date by the triggers match the pets: after every round
+ * of a random workload of inserts, updates and deletes through {@link PetProvider}, the pets are
+ * counted again and compared with the pets/stats URI.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class)
+public class PetStatsTest {
+
+    private static final int ROUNDS = 10;
+
+    private static final int OPERATIONS_PER_ROUND = 300;
+
+    /** Breeds of the workload, an empty breed is no breed */
+    private static final String[] BREEDS = {"Beagle", "Siamese", "Poodle", "Tabby", "Boxer", "", null};
+
+    /** Asks the stats URI for every breed instead of the top ones */
+    private static final Uri ALL_STATS_URI = PetsContract.PetStatsEntry.CONTENT_URI.buildUpon()
+            .appendQueryParameter(QUERY_PARAMETER_LIMIT, "1000").build();
+
+    private PetProvider mProvider;
+
+    private final Random mRandom = new Random(15);
+
+    /** Highest _ID handed out so far, the workload picks pets up to it */
+    private long mLastId;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(PetProvider.class);
+    }
+
+    @Test
+    public void statsMatchTheRecountAfterRandomWrites() throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < OPERATIONS_PER_ROUND; i++) {
+                runRandomOperation();
+            }
+            assertEquals("Round " + round, recount(), readStats());
+        }
+    }
+
+    /**
+     * Run one write picked at random, on a pet picked at random, which may be gone already.
+     */
+    private void runRandomOperation() throws Exception {
+        int operation = mRandom.nextInt(100);
+        Uri petUri = ContentUris.withAppendedId(CONTENT_URI, 1 + (long) mRandom.nextInt((int) mLastId + 1));
+        if (operation < 35) {
+            mLastId = ContentUris.parseId(mProvider.insert(CONTENT_URI, randomPet()));
+        } else if (operation < 40) {
+            ContentValues[] pets = new ContentValues[1 + mRandom.nextInt(20)];
+            for (int i = 0; i < pets.length; i++) {
+                pets[i] = randomPet();
+            }
+            mLastId += mProvider.bulkInsert(CONTENT_URI, pets);
+        } else if (operation < 55) {
+            // All the columns, through the compiled statement
+            mProvider.update(petUri, randomPet(), null, null);
+        } else if (operation < 70) {
+            // Some of the columns
+            ContentValues values = new ContentValues();
+            switch (mRandom.nextInt(3)) {
+                case 0:
+                    values.put(COLUMN_PET_BREED, randomBreed());
+                    break;
+                case 1:
+                    values.put(COLUMN_PET_GENDER, mRandom.nextInt(3));
+                    break;
+                default:
+                    values.put(COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+                    break;
+            }
+            mProvider.update(petUri, values, null, null);
+        } else if (operation < 75) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PET_BREED, randomBreed());
+            values.put(COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+            mProvider.update(CONTENT_URI, values, COLUMN_PET_GENDER + "=? AND " + COLUMN_PET_WEIGHT + "<?",
+                    new String[] {String.valueOf(mRandom.nextInt(3)), String.valueOf(mRandom.nextInt(10))});
+        } else if (operation < 93) {
+            mProvider.delete(petUri, null, null);
+        } else if (operation < 95) {
+            mProvider.delete(CONTENT_URI, COLUMN_PET_WEIGHT + "=?",
+                    new String[] {String.valueOf(mRandom.nextInt(60))});
+        } else {
+            // A batch that changes one pet and adds another
+            ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+            batch.add(ContentProviderOperation.newUpdate(petUri)
+                    .withValue(COLUMN_PET_WEIGHT, mRandom.nextInt(60)).build());
+            batch.add(ContentProviderOperation.newInsert(CONTENT_URI).withValues(randomPet()).build());
+            mLastId = ContentUris.parseId(mProvider.applyBatch(batch)[1].uri);
+        }
+    }
+
+    private ContentValues randomPet() {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_PET_NAME, "Pet " + mRandom.nextInt(1000));
+        values.put(COLUMN_PET_BREED, randomBreed());
+        values.put(COLUMN_PET_GENDER, mRandom.nextInt(3));
+        values.put(COLUMN_PET_WEIGHT, mRandom.nextInt(60));
+        return values;
+    }
+
+    private String randomBreed() {
+        return BREEDS[mRandom.nextInt(BREEDS.length)];
+    }
+
+    /**
+     * Returns the statistics worked out from the pets, keyed by type and key, with the count
+     * and the total weight, or only the count for the breeds.
+     */
+    private Map<String, String> recount() {
+        Map<String, String> stats = new TreeMap<>();
+        long count = 0;
+        long totalWeight = 0;
+        Map<String, long[]> genders = new TreeMap<>();
+        Map<String, long[]> breeds = new TreeMap<>();
+        // Every gender has its statistic, even without pets
+        for (int gender = 0; gender < 3; gender++) {
+            genders.put(String.valueOf(gender), new long[2]);
+        }
+        Cursor cursor = mProvider.query(CONTENT_URI,
+                new String[] {COLUMN_PET_BREED, COLUMN_PET_GENDER, COLUMN_PET_WEIGHT}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String breed = cursor.getString(0);
+                long weight = cursor.getLong(2);
+                long[] gender = genders.get(cursor.getString(1));
+                gender[0]++;
+                gender[1] += weight;
+                String breedKey = TextUtils.isEmpty(breed) ? "" : breed;
+                if (!breeds.containsKey(breedKey)) {
+                    breeds.put(breedKey, new long[1]);
+                }
+                breeds.get(breedKey)[0]++;
+                count++;
+                totalWeight += weight;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        stats.put(TYPE_ALL, count + "," + totalWeight);
+        for (Map.Entry<String, long[]> gender : genders.entrySet()) {
+            stats.put(TYPE_GENDER + " " + gender.getKey(), gender.getValue()[0] + "," + gender.getValue()[1]);
+        }
+        for (Map.Entry<String, long[]> breed : breeds.entrySet()) {
+            stats.put(TYPE_BREED + " " + breed.getKey(), String.valueOf(breed.getValue()[0]));
+        }
+        return stats;
+    }
+
+    /**
+     * Returns the statistics of the stats URI, in the same form as {@link #recount()}.
+     */
+    private Map<String, String> readStats() {
+        Map<String, String> stats = new TreeMap<>();
+        Cursor cursor = mProvider.query(ALL_STATS_URI, new String[] {COLUMN_STAT_TYPE,
+                COLUMN_STAT_KEY, COLUMN_PET_COUNT, COLUMN_TOTAL_WEIGHT}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                String count = String.valueOf(cursor.getLong(2));
+                if (TYPE_ALL.equals(type)) {
+                    stats.put(type, count + "," + cursor.getLong(3));
+                } else if (TYPE_GENDER.equals(type)) {
+                    stats.put(type + " " + cursor.getString(1), count + "," + cursor.getLong(3));
+                } else {
+                    stats.put(type + " " + cursor.getString(1), count);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Reads how SQLite runs a query, for the tests that check which index a query uses.
+ */
+final class QueryPlan {
+
+    private QueryPlan() {
+    }
+
+    /**
+     * Returns the lines of the EXPLAIN QUERY PLAN of the query, one per step, like
+     * "SEARCH TABLE pets USING INDEX index_pets_name (name=?)".
+     */
+    static String explain(SQLiteDatabase db, String sql, String[] args) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detailColumnIndex = cursor.getColumnIndexOrThrow("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detailColumnIndex)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}